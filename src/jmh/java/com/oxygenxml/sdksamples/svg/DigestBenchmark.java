@@ -0,0 +1,56 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the SHA-256 digest that addresses the frozen fragments.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DigestBenchmark {
+
+  /**
+   * The number of paths in the SVG.
+   */
+  @Param({"10", "1000", "100000"})
+  int elements;
+
+  /**
+   * The encoded SVG.
+   */
+  private SvgContentBuffer content;
+
+  /**
+   * Encodes the SVG.
+   */
+  @Setup
+  public void setUp() {
+    content = SvgContentBuffer.encode(StubDocument.generateSvg(elements, 0));
+  }
+
+  /**
+   * Computes the digest of the SVG.
+   * 
+   * @return The digest.
+   */
+  @Benchmark
+  public String sha256() {
+    return content.sha256Hex();
+  }
+}
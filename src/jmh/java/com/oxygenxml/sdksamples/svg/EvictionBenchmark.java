@@ -0,0 +1,82 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.text.BadLocationException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ro.sync.ecss.extensions.api.node.AuthorElement;
+
+/**
+ * Benchmark of the eviction of the fragments of a document, which replaced the compaction
+ * of the cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 30)
+@Fork(1)
+public class EvictionBenchmark {
+
+  /**
+   * The number of SVGs in the document.
+   */
+  @Param({"100", "1000", "10000"})
+  int svgCount;
+
+  /**
+   * The document.
+   */
+  private StubDocument document;
+
+  /**
+   * The elements, kept reachable so that their entries are not removed.
+   */
+  private List<AuthorElement> elements;
+
+  /**
+   * Freezes the SVGs of a new document before each eviction.
+   * 
+   * @throws BadLocationException
+   */
+  @Setup(Level.Invocation)
+  public void setUp() throws BadLocationException {
+    document = new StubDocument();
+    elements = new ArrayList<>(svgCount);
+    for (int i = 0; i < svgCount; i++) {
+      AuthorElement svg = document.newSvgElement();
+      elements.add(svg);
+      document.setContent(StubDocument.generateSvg(10, i));
+      document.cache.freezeSvgFrag(svg);
+    }
+  }
+
+  /**
+   * Evicts half of the fragments of the document.
+   * 
+   * @return The freed bytes.
+   */
+  @Benchmark
+  public long evictHalf() {
+    long bytes = 0;
+    for (int i = 0; i < svgCount; i++) {
+      bytes += document.cache.getLength(i);
+    }
+    return document.cache.evictColdEntries(bytes / 2, -1);
+  }
+}
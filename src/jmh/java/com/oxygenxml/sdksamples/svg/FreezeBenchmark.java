@@ -0,0 +1,98 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.text.BadLocationException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ro.sync.ecss.extensions.api.node.AuthorElement;
+
+/**
+ * Benchmark of freezing small, medium and huge SVGs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FreezeBenchmark {
+
+  /**
+   * The number of paths in the SVG.
+   */
+  @Param({"10", "1000", "100000"})
+  int elements;
+
+  /**
+   * The document.
+   */
+  private StubDocument document;
+
+  /**
+   * The SVG element.
+   */
+  private AuthorElement svg;
+
+  /**
+   * Two different drawings, that are frozen alternatively.
+   */
+  private String[] drawings;
+
+  /**
+   * The index of the current drawing.
+   */
+  private int current;
+
+  /**
+   * Freezes the first drawing.
+   * 
+   * @throws BadLocationException
+   */
+  @Setup
+  public void setUp() throws BadLocationException {
+    document = new StubDocument();
+    svg = document.newSvgElement();
+    drawings = new String[] {StubDocument.generateSvg(elements, 0), StubDocument.generateSvg(elements, 1)};
+    document.setContent(drawings[current]);
+    document.cache.freezeSvgFrag(svg);
+  }
+
+  /**
+   * Freezes an SVG that was edited: serialization, encoding, hashing and compression.
+   * 
+   * @return The id of the element.
+   * 
+   * @throws BadLocationException
+   */
+  @Benchmark
+  public long freezeAfterEdit() throws BadLocationException {
+    current = 1 - current;
+    document.setContent(drawings[current]);
+    document.listener.authorNodeStructureChanged(svg);
+    return document.cache.freezeSvgFrag(svg);
+  }
+
+  /**
+   * Freezes an SVG that did not change since it was frozen, as on each render of the document.
+   * 
+   * @return The id of the element.
+   * 
+   * @throws BadLocationException
+   */
+  @Benchmark
+  public long freezeUnchanged() throws BadLocationException {
+    return document.cache.freezeSvgFrag(svg);
+  }
+}
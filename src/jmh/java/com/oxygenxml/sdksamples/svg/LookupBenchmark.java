@@ -0,0 +1,99 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.text.BadLocationException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ro.sync.ecss.extensions.api.node.AuthorElement;
+
+/**
+ * Benchmark of the lookups of frozen SVGs by several threads at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class LookupBenchmark {
+
+  /**
+   * The number of SVGs in the document.
+   */
+  private static final int SVG_COUNT = 1000;
+
+  /**
+   * The document.
+   */
+  private StubDocument document;
+
+  /**
+   * The elements, kept reachable so that their entries are not removed.
+   */
+  private final List<AuthorElement> elements = new ArrayList<>();
+
+  /**
+   * The ids of the elements.
+   */
+  private final long[] ids = new long[SVG_COUNT];
+
+  /**
+   * The digests of the fragments.
+   */
+  private final String[] digests = new String[SVG_COUNT];
+
+  /**
+   * Freezes the SVGs of the document.
+   * 
+   * @throws BadLocationException
+   */
+  @Setup
+  public void setUp() throws BadLocationException {
+    document = new StubDocument();
+    for (int i = 0; i < SVG_COUNT; i++) {
+      AuthorElement svg = document.newSvgElement();
+      elements.add(svg);
+      document.setContent(StubDocument.generateSvg(10, i));
+      ids[i] = document.cache.freezeSvgFrag(svg);
+      digests[i] = document.cache.getDigest(ids[i]);
+    }
+  }
+
+  /**
+   * Looks up the XML content of an SVG by element id.
+   * 
+   * @return The XML content.
+   */
+  @Benchmark
+  public String getXmlFragment() {
+    return document.cache.getXmlFragment(ids[ThreadLocalRandom.current().nextInt(SVG_COUNT)]);
+  }
+
+  /**
+   * Looks up a fragment by digest, as the servlet does.
+   * 
+   * @return The fragment.
+   */
+  @Benchmark
+  public SvgResource getResourceByDigest() {
+    SvgResource resource = SvgFragmentStore.getResource(digests[ThreadLocalRandom.current().nextInt(SVG_COUNT)]);
+    resource.release();
+    return resource;
+  }
+}
@@ -0,0 +1,109 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.net.HttpHeaders;
+
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.ServletException;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.ServletOutputStream;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.http.HttpServletRequest;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.http.HttpServletResponse;
+
+/**
+ * Benchmark of serving a frozen SVG. The request and the response are stubs, so the time
+ * spent in the container and on the network is not included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServletBenchmark {
+
+  /**
+   * The number of paths in the SVG.
+   */
+  @Param({"10", "1000", "100000"})
+  int elements;
+
+  /**
+   * Whether the client accepts gzip.
+   */
+  @Param({"true", "false"})
+  boolean gzip;
+
+  /**
+   * The servlet.
+   */
+  private final SvgServlet servlet = new SvgServlet();
+
+  /**
+   * The served fragment.
+   */
+  private SvgFragment fragment;
+
+  /**
+   * The request.
+   */
+  private HttpServletRequest request;
+
+  /**
+   * The response.
+   */
+  private HttpServletResponse response;
+
+  /**
+   * Freezes the SVG and stubs the request.
+   * 
+   * @throws IOException
+   */
+  @Setup
+  public void setUp() throws IOException {
+    fragment = SvgFragmentStore.intern(SvgContentBuffer.encode(StubDocument.generateSvg(elements, 0)));
+    request = StubDocument.stub(HttpServletRequest.class);
+    Mockito.when(request.getMethod()).thenReturn("GET");
+    Mockito.when(request.getParameter("xmlSvgFragHash")).thenReturn(fragment.getDigest());
+    Mockito.when(request.getParameter("sig")).thenReturn(SvgUrlSigner.sign(fragment.getDigest()));
+    Mockito.when(request.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn(gzip ? "gzip, deflate, br" : null);
+    Mockito.when(request.getDateHeader(Mockito.anyString())).thenReturn(-1L);
+    
+    response = StubDocument.stub(HttpServletResponse.class);
+    ServletOutputStream out = StubDocument.stub(ServletOutputStream.class);
+    Mockito.when(response.getOutputStream()).thenReturn(out);
+  }
+
+  /**
+   * Releases the fragment.
+   */
+  @TearDown
+  public void tearDown() {
+    fragment.release();
+  }
+
+  /**
+   * Serves the SVG.
+   * 
+   * @throws IOException
+   * @throws ServletException
+   */
+  @Benchmark
+  public void doGet() throws ServletException, IOException {
+    servlet.doGet(request, response);
+  }
+}
@@ -49,7 +49,11 @@ public class EditingSessionContextManager {
       String docId = generateId();
       activeAuthorAccessCache.put(docId, authorAccess);
       editingContext.setAttribute(AUTHOR_ACCESS_ID, docId);
-      editingContext.setAttribute(SVG_CACHE, new PerDocumentSvgCache(authorAccess.getDocumentController()));
+      PerDocumentSvgCache svgCache = new PerDocumentSvgCache(authorAccess.getDocumentController());
+      editingContext.setAttribute(SVG_CACHE, svgCache);
+      if (SvgPluginOptions.isPreWarm()) {
+        SvgPreWarmer.preWarm(authorAccess.getDocumentController(), svgCache);
+      }
     }
   }
 
@@ -72,4 +76,13 @@ public class EditingSessionContextManager {
   public static AuthorAccess getDocument(String authorAccessId) {
     return activeAuthorAccessCache.getIfPresent(authorAccessId);
   }
+
+  /**
+   * @return The number of documents that are open.
+   */
+  public static long getDocumentCount() {
+    // Drop the documents that were collected.
+    activeAuthorAccessCache.cleanUp();
+    return activeAuthorAccessCache.size();
+  }
 }
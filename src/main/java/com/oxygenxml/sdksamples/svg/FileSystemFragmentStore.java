@@ -0,0 +1,420 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Shared fragment store kept in a directory, usually mounted on all the nodes of the cluster.
+ *
+ * Each fragment is stored in a file named after its digest, with its compressed variant next
+ * to it. The files are written under a temporary name and moved in place, so readers never see
+ * a partial file.
+ *
+ * The fragments published least recently are deleted when the directory exceeds its maximum
+ * size. Publishing a fragment that is already stored makes it recent again. The directory is swept by the node that publishes, after it published a part of the maximum size,
+ * so the fragments published by all the nodes are accounted for.
+ */
+@Slf4j
+public class FileSystemFragmentStore implements SharedFragmentStore {
+
+  /**
+   * The digests accepted from clients, which makes sure they cannot address other files.
+   */
+  private static final Pattern DIGEST = Pattern.compile("[0-9a-f]{64}");
+
+  /**
+   * The extension of the files with the XML content.
+   */
+  private static final String SVG_EXTENSION = ".svg";
+
+  /**
+   * The extension of the files with the compressed content.
+   */
+  private static final String GZIP_EXTENSION = ".svg.gz";
+
+  /**
+   * The extension of the files being written.
+   */
+  private static final String TEMP_EXTENSION = ".tmp";
+
+  /**
+   * The age after which a file being written is considered left by a crash.
+   */
+  private static final long TEMP_FILE_MAX_AGE = TimeUnit.HOURS.toMillis(1);
+
+  /**
+   * The part of the maximum size published between two sweeps of the directory.
+   */
+  private static final int SWEEP_FRACTION = 16;
+
+  /**
+   * The root directory of the store.
+   */
+  private final Path directory;
+
+  /**
+   * The maximum number of bytes in the directory.
+   */
+  private final long maxBytes;
+
+  /**
+   * The bytes published since the directory was last swept. The first publish sweeps it.
+   */
+  private final AtomicLong publishedBytes;
+
+  /**
+   * Constructor.
+   *
+   * @param directory The root directory of the store.
+   */
+  public FileSystemFragmentStore(Path directory) {
+    this(directory, SvgPluginOptions.getSharedStoreMaxBytes());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param directory The root directory of the store.
+   * @param maxBytes The maximum number of bytes in the directory.
+   */
+  public FileSystemFragmentStore(Path directory, long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.publishedBytes = new AtomicLong(getSweepInterval());
+  }
+
+  @Override
+  public void publish(SvgFragment fragment) throws IOException {
+    String digest = fragment.getDigest();
+    Path svgFile = getFile(digest, SVG_EXTENSION);
+    try {
+      // Still used, so it is deleted after the fragments that were not published since.
+      Files.setLastModifiedTime(svgFile, FileTime.fromMillis(System.currentTimeMillis()));
+      return;
+    } catch (NoSuchFileException e) {
+      // Not published yet, or deleted by a sweep.
+    }
+    Files.createDirectories(svgFile.getParent());
+    // The XML file is moved in place last, so the compressed variant is complete when it is found.
+    if (fragment.getGzippedLength() != -1) {
+      Path gzipFile = getFile(digest, GZIP_EXTENSION);
+      Path tempGzipFile = Files.createTempFile(svgFile.getParent(), digest, TEMP_EXTENSION);
+      try (OutputStream out = Files.newOutputStream(tempGzipFile)) {
+        fragment.writeGzipped(out);
+      }
+      SvgFiles.moveInPlace(tempGzipFile, gzipFile);
+    }
+    Path tempSvgFile = Files.createTempFile(svgFile.getParent(), digest, TEMP_EXTENSION);
+    try (OutputStream out = Files.newOutputStream(tempSvgFile)) {
+      fragment.writeContent(out);
+    }
+    SvgFiles.moveInPlace(tempSvgFile, svgFile);
+
+    long published = fragment.getLength() + Math.max(0, fragment.getGzippedLength());
+    if (publishedBytes.addAndGet(published) >= getSweepInterval()) {
+      publishedBytes.set(0);
+      evictOldFragments();
+    }
+  }
+
+  @Override
+  public SvgResource get(String digest) throws IOException {
+    if (digest == null || !DIGEST.matcher(digest).matches()) {
+      return null;
+    }
+    // The files are opened right away, so that a sweep deleting them meanwhile does not break
+    // the response.
+    Path svgFile = getFile(digest, SVG_EXTENSION);
+    FileChannel svgChannel = open(svgFile);
+    if (svgChannel == null) {
+      return null;
+    }
+    FileChannel gzipChannel = null;
+    try {
+      gzipChannel = open(getFile(digest, GZIP_EXTENSION));
+      return new StoredFragment(digest, Files.getLastModifiedTime(svgFile).toMillis(), svgChannel, gzipChannel);
+    } catch (NoSuchFileException e) {
+      // Deleted by a sweep since it was opened.
+      closeQuietly(svgChannel);
+      closeQuietly(gzipChannel);
+      return null;
+    } catch (IOException | RuntimeException e) {
+      closeQuietly(svgChannel);
+      closeQuietly(gzipChannel);
+      throw e;
+    }
+  }
+
+  /**
+   * @param file The file.
+   *
+   * @return The file opened for reading, or <code>null</code> if it does not exist.
+   *
+   * @throws IOException If the file could not be opened.
+   */
+  private static FileChannel open(Path file) throws IOException {
+    try {
+      return FileChannel.open(file, StandardOpenOption.READ);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @param channel The channel to close, or <code>null</code>.
+   */
+  private static void closeQuietly(FileChannel channel) {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        log.debug(e.getMessage(), e);
+      }
+    }
+  }
+
+  /**
+   * Deletes the fragments published least recently, by any node, until the directory fits in its maximum
+   * size, and the temporary files left by crashes.
+   */
+  private void evictOldFragments() {
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+    List<Path> files;
+    try {
+      files = SvgFiles.list(directory);
+    } catch (IOException e) {
+      log.error(e, e);
+      return;
+    }
+    long now = System.currentTimeMillis();
+    long totalBytes = 0;
+    Map<String, StoredFiles> fragments = new HashMap<>();
+    for (Path file : files) {
+      String name = file.getFileName().toString();
+      try {
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        if (name.endsWith(TEMP_EXTENSION)) {
+          if (now - lastModified > TEMP_FILE_MAX_AGE) {
+            Files.deleteIfExists(file);
+          }
+        } else if (name.length() > 64 && DIGEST.matcher(name.substring(0, 64)).matches()) {
+          long size = Files.size(file);
+          totalBytes += size;
+          StoredFiles fragment = fragments.computeIfAbsent(name.substring(0, 64), StoredFiles::new);
+          fragment.size += size;
+          if (name.endsWith(GZIP_EXTENSION)) {
+            fragment.hasGzip = true;
+          } else {
+            fragment.publishedAt = lastModified;
+          }
+        }
+      } catch (IOException e) {
+        // Deleted by another node.
+        log.debug(e.getMessage(), e);
+      }
+    }
+    if (totalBytes <= maxBytes) {
+      return;
+    }
+    List<StoredFiles> oldestFirst = new ArrayList<>(fragments.values());
+    oldestFirst.sort(Comparator.comparingLong(fragment -> fragment.publishedAt));
+    for (StoredFiles fragment : oldestFirst) {
+      if (totalBytes <= maxBytes) {
+        break;
+      }
+      try {
+        // The XML file is deleted first, so the fragment is not found anymore.
+        Files.deleteIfExists(getFile(fragment.digest, SVG_EXTENSION));
+        if (fragment.hasGzip) {
+          Files.deleteIfExists(getFile(fragment.digest, GZIP_EXTENSION));
+        }
+      } catch (IOException e) {
+        log.error(e, e);
+      }
+      totalBytes -= fragment.size;
+    }
+  }
+
+  /**
+   * @return The number of bytes published between two sweeps of the directory.
+   */
+  private long getSweepInterval() {
+    return maxBytes / SWEEP_FRACTION;
+  }
+
+  /**
+   * @param digest The digest of a fragment.
+   * @param extension The extension of the file.
+   *
+   * @return The file.
+   */
+  private Path getFile(String digest, String extension) {
+    return SvgFiles.resolve(directory, digest + extension);
+  }
+
+  /**
+   * The files of a fragment, found when the directory is swept.
+   */
+  private static final class StoredFiles {
+    /**
+     * The digest of the fragment.
+     */
+    private final String digest;
+
+    /**
+     * The size of the files.
+     */
+    private long size;
+
+    /**
+     * The time when the fragment was last published, 0 if only the compressed content is left.
+     */
+    private long publishedAt;
+
+    /**
+     * <code>true</code> if the compressed content was found.
+     */
+    private boolean hasGzip;
+
+    /**
+     * Constructor.
+     *
+     * @param digest The digest of the fragment.
+     */
+    StoredFiles(String digest) {
+      this.digest = digest;
+    }
+  }
+
+  /**
+   * A fragment read from the store. Its files stay open until it is released.
+   */
+  private static final class StoredFragment implements SvgResource {
+    /**
+     * The digest of the fragment.
+     */
+    private final String digest;
+
+    /**
+     * The XML content.
+     */
+    private final FileChannel svgChannel;
+
+    /**
+     * The compressed content, or <code>null</code>.
+     */
+    private final FileChannel gzipChannel;
+
+    /**
+     * The time when the fragment was last published.
+     */
+    private final long frozenAt;
+
+    /**
+     * The length of the XML content.
+     */
+    private final int length;
+
+    /**
+     * The length of the compressed content, or -1.
+     */
+    private final int gzippedLength;
+
+    /**
+     * Constructor.
+     *
+     * @param digest The digest of the fragment.
+     * @param frozenAt The time when the fragment was last published.
+     * @param svgChannel The XML content.
+     * @param gzipChannel The compressed content, or <code>null</code>.
+     *
+     * @throws IOException If the files could not be read.
+     */
+    StoredFragment(String digest, long frozenAt, FileChannel svgChannel, FileChannel gzipChannel) throws IOException {
+      this.digest = digest;
+      this.frozenAt = frozenAt;
+      this.svgChannel = svgChannel;
+      this.gzipChannel = gzipChannel;
+      this.length = (int) svgChannel.size();
+      this.gzippedLength = gzipChannel != null ? (int) gzipChannel.size() : -1;
+    }
+
+    @Override
+    public String getDigest() {
+      return digest;
+    }
+
+    @Override
+    public long getFrozenAt() {
+      return frozenAt;
+    }
+
+    @Override
+    public int getLength() {
+      return length;
+    }
+
+    @Override
+    public int getGzippedLength() {
+      return gzippedLength;
+    }
+
+    @Override
+    public void writeContent(OutputStream out) throws IOException {
+      write(svgChannel, length, out);
+    }
+
+    @Override
+    public void writeGzipped(OutputStream out) throws IOException {
+      write(gzipChannel, gzippedLength, out);
+    }
+
+    @Override
+    public void release() {
+      closeQuietly(svgChannel);
+      closeQuietly(gzipChannel);
+    }
+
+    /**
+     * Writes the content of a file, from its start.
+     *
+     * @param channel The file.
+     * @param size The size of the file.
+     * @param out The output stream.
+     *
+     * @throws IOException If the content could not be written.
+     */
+    private static void write(FileChannel channel, long size, OutputStream out) throws IOException {
+      WritableByteChannel target = Channels.newChannel(out);
+      long position = 0;
+      while (position < size) {
+        long transferred = channel.transferTo(position, size - position, target);
+        if (transferred == 0 && position >= channel.size()) {
+          throw new EOFException("The fragment file is shorter than expected.");
+        }
+        position += transferred;
+      }
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the UTF-8 encoded text it receives as a JSON string literal, escaping it on the fly, so
+ * that a fragment can be added to a JSON response without decoding it to a String first.
+ *
+ * The escaped characters are ASCII, and the bytes of multi-byte UTF-8 sequences are never ASCII,
+ * so the text is escaped byte by byte. Only the line and paragraph separators, which are not
+ * valid in JavaScript strings, need to look at a whole sequence.
+ */
+class JsonStringOutputStream extends FilterOutputStream {
+
+  /**
+   * The first byte of the line and paragraph separators, U+2028 and U+2029.
+   */
+  private static final int SEPARATOR_FIRST_BYTE = 0xE2;
+
+  /**
+   * The second byte of the line and paragraph separators.
+   */
+  private static final int SEPARATOR_SECOND_BYTE = 0x80;
+
+  /**
+   * The last byte of the line separator.
+   */
+  private static final int LINE_SEPARATOR_LAST_BYTE = 0xA8;
+
+  /**
+   * The last byte of the paragraph separator.
+   */
+  private static final int PARAGRAPH_SEPARATOR_LAST_BYTE = 0xA9;
+
+  /**
+   * The number of bytes of a possible separator that were received but not written yet.
+   */
+  private int pendingBytes = 0;
+
+  /**
+   * Constructor. Writes the opening quote.
+   *
+   * @param out The stream of the JSON document. It is not closed by this stream.
+   *
+   * @throws IOException If the quote could not be written.
+   */
+  JsonStringOutputStream(OutputStream out) throws IOException {
+    super(out);
+    out.write('"');
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    b &= 0xFF;
+    if (pendingBytes == 2) {
+      pendingBytes = 0;
+      if (b == LINE_SEPARATOR_LAST_BYTE || b == PARAGRAPH_SEPARATOR_LAST_BYTE) {
+        writeAscii(b == LINE_SEPARATOR_LAST_BYTE ? "\\u2028" : "\\u2029");
+        return;
+      }
+      out.write(SEPARATOR_FIRST_BYTE);
+      out.write(SEPARATOR_SECOND_BYTE);
+    } else if (pendingBytes == 1) {
+      if (b == SEPARATOR_SECOND_BYTE) {
+        pendingBytes = 2;
+        return;
+      }
+      pendingBytes = 0;
+      out.write(SEPARATOR_FIRST_BYTE);
+    }
+
+    if (b == SEPARATOR_FIRST_BYTE) {
+      pendingBytes = 1;
+    } else if (b == '"' || b == '\\') {
+      out.write('\\');
+      out.write(b);
+    } else if (b < 0x20) {
+      writeAscii(String.format("\\u%04x", b));
+    } else {
+      out.write(b);
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    // The runs of bytes that need no escaping are written at once.
+    int runStart = off;
+    for (int i = off; i < off + len; i++) {
+      if (pendingBytes != 0 || needsAttention(b[i] & 0xFF)) {
+        out.write(b, runStart, i - runStart);
+        write(b[i]);
+        runStart = i + 1;
+      }
+    }
+    out.write(b, runStart, off + len - runStart);
+  }
+
+  /**
+   * Writes the pending bytes and the closing quote. The stream must not be used afterwards.
+   *
+   * @throws IOException If the bytes could not be written.
+   */
+  void end() throws IOException {
+    if (pendingBytes >= 1) {
+      out.write(SEPARATOR_FIRST_BYTE);
+    }
+    if (pendingBytes == 2) {
+      out.write(SEPARATOR_SECOND_BYTE);
+    }
+    pendingBytes = 0;
+    out.write('"');
+  }
+
+  /**
+   * @param b A byte.
+   *
+   * @return <code>true</code> if the byte is escaped or may start a separator.
+   */
+  private static boolean needsAttention(int b) {
+    return b < 0x20 || b == '"' || b == '\\' || b == SEPARATOR_FIRST_BYTE;
+  }
+
+  /**
+   * @param text ASCII text.
+   *
+   * @throws IOException If the text could not be written.
+   */
+  private void writeAscii(String text) throws IOException {
+    for (int i = 0; i < text.length(); i++) {
+      out.write(text.charAt(i));
+    }
+  }
+}
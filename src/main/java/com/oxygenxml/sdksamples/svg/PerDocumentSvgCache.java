@@ -1,16 +1,35 @@
 package com.oxygenxml.sdksamples.svg;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
 
 import javax.swing.text.BadLocationException;
 
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.Striped;
+
+import lombok.extern.slf4j.Slf4j;
+import ro.sync.ecss.extensions.api.AttributeChangedEvent;
 import ro.sync.ecss.extensions.api.AuthorDocumentController;
+import ro.sync.ecss.extensions.api.AuthorListenerAdapter;
+import ro.sync.ecss.extensions.api.DocumentContentDeletedEvent;
+import ro.sync.ecss.extensions.api.DocumentContentInsertedEvent;
 import ro.sync.ecss.extensions.api.node.AttrValue;
+import ro.sync.ecss.extensions.api.node.AuthorDocument;
 import ro.sync.ecss.extensions.api.node.AuthorDocumentFragment;
 import ro.sync.ecss.extensions.api.node.AuthorElement;
 import ro.sync.ecss.extensions.api.node.AuthorNode;
@@ -20,6 +39,7 @@ import ro.sync.ecss.extensions.api.node.AuthorNode;
  * 
  * @author cristi_talau
  */
+@Slf4j
 public class PerDocumentSvgCache {
   
   private static final String XMLNS_SVG_NAMESPACE = "xmlns:svg";
@@ -34,22 +54,68 @@ public class PerDocumentSvgCache {
   /**
    * Map from node identifiers to SVG fragments. 
    */
-  private final Map<Long, String> svgElements = new HashMap<>(0);
-
+  private final Map<Long, FrozenEntry> svgElements = new ConcurrentHashMap<>();
+  
+  /**
+   * Queue on which the references to collected elements are enqueued.
+   */
+  private final ReferenceQueue<AuthorElement> collectedElements = new ReferenceQueue<>();
+  
+  /**
+   * The references to the indexed elements, by node identifier.
+   */
+  private final Map<Long, ElementReference> elementReferences = new ConcurrentHashMap<>();
+  
   /**
-   * The cache size after the last compaction.
+   * Locks that serialize the freezing of the same element.
    */
-  private long lastCompactedCacheSize = 4L;
+  private final Striped<Lock> elementLocks = Striped.lock(64);
   
   /**
-   * The nodes indexer.
+   * Lock that makes sure only one thread evicts fragments at a time.
    */
-  Map<AuthorElement, Long> nodeIndexer = new WeakHashMap<>();
+  private final Lock evictionLock = new ReentrantLock();
+  
+  /**
+   * The nodes indexer. Weak keys compared by identity.
+   */
+  final ConcurrentMap<AuthorElement, Long> nodeIndexer = new MapMaker().weakKeys().makeMap();
   
   /**
    * counter used for indexing nodes.
    */
-  private long counter = 0;
+  private final AtomicLong counter = new AtomicLong();
+  
+  /**
+   * The entries whose fragment is in memory, in the order in which the eviction visits them.
+   * May also contain entries released since they were queued, which are dropped when visited.
+   */
+  private final Queue<FrozenEntry> evictionQueue = new ConcurrentLinkedQueue<>();
+  
+  /**
+   * The number of entries in the eviction queue.
+   */
+  private final AtomicInteger queuedEntries = new AtomicInteger();
+  
+  /**
+   * Clock used to version the elements.
+   */
+  private final AtomicLong versionClock = new AtomicLong();
+  
+  /**
+   * The ids of the entries whose SVG subtree did not change since they were frozen.
+   */
+  private final Set<Long> cleanElements = ConcurrentHashMap.newKeySet();
+  
+  /**
+   * The number of copies waiting to be frozen.
+   */
+  private final AtomicInteger pendingCopies = new AtomicInteger();
+  
+  /**
+   * The bytes held by this document.
+   */
+  private final SvgMemoryBudget.DocumentUsage memoryUsage;
 
   /**
    * Constructor.
@@ -58,25 +124,172 @@ public class PerDocumentSvgCache {
    */
   public PerDocumentSvgCache(AuthorDocumentController controller) {
     this.docController = controller;
+    this.memoryUsage = SvgMemoryBudget.register(this);
+    // Some editing contexts, like the ones created in tests, have no controller.
+    if (controller != null) {
+      controller.addAuthorListener(new ChangesListener());
+    }
   }
 
   /**
    * Freezes the XML content that corresponds to the given element.
    * 
+   * Readers are never blocked and different elements are frozen concurrently.
+   * 
    * @param elem The author element.
    * 
    * @return The id of the cache entry.
    * 
    * @throws BadLocationException
    */
-  public synchronized long freezeSvgFrag(AuthorElement elem) throws BadLocationException {
+  public long freezeSvgFrag(AuthorElement elem) throws BadLocationException {
+    long elemId = register(elem);
+    
+    Lock elementLock = elementLocks.get(elemId);
+    elementLock.lock();
+    try {
+      FrozenEntry entry = svgElements.get(elemId);
+      if (cleanElements.contains(elemId) && entry != null && entry.isAvailable()) {
+        // The SVG did not change since it was frozen.
+        SvgMetrics.freezeHits.increment();
+        return elemId;
+      }
+      // Mark it clean before serializing, so that concurrent changes are not missed.
+      cleanElements.add(elemId);
+      SvgContentBuffer content = null;
+      try {
+        content = serialize(copySvgFrag(elem));
+      } finally {
+        if (content == null) {
+          // The entry, if any, is stale. It must be frozen again on the next request.
+          cleanElements.remove(elemId);
+        }
+      }
+      storeContent(elemId, entry, content, SvgDimensions.of(elem));
+      ElementReference ref = elementReferences.get(elemId);
+      if (ref != null) {
+        // A copy taken before is not needed anymore.
+        setPendingCopy(ref, null);
+      }
+    } finally {
+      elementLock.unlock();
+    }
+    
+    enforceMemoryBudget(elemId);
+    return elemId;
+  }
+  
+  /**
+   * Assigns an id to the given element, without freezing it.
+   * 
+   * @param elem The author element.
+   * 
+   * @return The id of the cache entry.
+   */
+  public long register(AuthorElement elem) {
+    memoryUsage.touch();
     long elemId = nodeIndexer.computeIfAbsent(elem, new Function<AuthorElement, Long>() {
       @Override
       public Long apply(AuthorElement t) {
-        return counter++;
+        long newId = counter.getAndIncrement();
+        elementReferences.put(newId, new ElementReference(t, newId, collectedElements));
+        return newId;
       }
     });
     
+    expungeStaleEntries();
+    return elemId;
+  }
+  
+  /**
+   * Assigns an id to the given element and copies its subtree, without freezing it. The copy is
+   * frozen when the fragment is first requested, so that the thread serving the request never
+   * reads the document while it is edited. Must be called on the thread that edits the document.
+   * 
+   * The copies are accounted in the memory budget. When too many copies of the document wait
+   * for their image to be requested, the element is frozen right away instead.
+   * 
+   * @param elem The author element.
+   * 
+   * @return The id of the cache entry.
+   * 
+   * @throws BadLocationException
+   */
+  public long registerLazily(AuthorElement elem) throws BadLocationException {
+    long elemId = register(elem);
+    ElementReference ref = elementReferences.get(elemId);
+    FrozenEntry entry = svgElements.get(elemId);
+    if (ref != null && !(cleanElements.contains(elemId) && entry != null && entry.isAvailable())) {
+      if (ref.pendingCopy.get() == null && pendingCopies.get() >= SvgPluginOptions.getMaxPendingCopies()) {
+        // The copies of the images never requested would pile up.
+        return freezeSvgFrag(elem);
+      }
+      setPendingCopy(ref, new PendingCopy(copySvgFrag(elem), SvgDimensions.of(elem), ref.version));
+      enforceMemoryBudget(elemId);
+    }
+    return elemId;
+  }
+  
+  /**
+   * Replaces the copy of an element waiting to be frozen, accounting it in the memory budget.
+   * 
+   * @param ref The reference to the element.
+   * @param copy The new copy, or <code>null</code>.
+   */
+  private void setPendingCopy(ElementReference ref, PendingCopy copy) {
+    if (copy != null) {
+      pendingCopies.incrementAndGet();
+      memoryUsage.add(copy.weight);
+    }
+    releasePendingCopy(ref.pendingCopy.getAndSet(copy));
+  }
+  
+  /**
+   * Removes the given copy of an element, if it was not replaced meanwhile.
+   * 
+   * @param ref The reference to the element.
+   * @param copy The copy.
+   */
+  private void clearPendingCopy(ElementReference ref, PendingCopy copy) {
+    if (ref.pendingCopy.compareAndSet(copy, null)) {
+      releasePendingCopy(copy);
+    }
+  }
+  
+  /**
+   * Stops accounting a copy that is not referenced anymore.
+   * 
+   * @param copy The copy, or <code>null</code>.
+   */
+  private void releasePendingCopy(PendingCopy copy) {
+    if (copy != null) {
+      pendingCopies.decrementAndGet();
+      memoryUsage.add(-copy.weight);
+    }
+  }
+  
+  /**
+   * The version of the given element, that changes whenever a frozen state of the element
+   * becomes stale.
+   * 
+   * @param elemId The id of the cache entry.
+   * @return The version.
+   */
+  public long getVersion(long elemId) {
+    ElementReference ref = elementReferences.get(elemId);
+    return ref != null ? ref.version : 0;
+  }
+  
+  /**
+   * Copies the subtree of the given element.
+   * 
+   * @param elem The author element.
+   * 
+   * @return The copy, detached from the document.
+   * 
+   * @throws BadLocationException
+   */
+  private AuthorDocumentFragment copySvgFrag(AuthorElement elem) throws BadLocationException {
     AuthorDocumentFragment svgFrag = docController.createDocumentFragment(elem, true);
     
     // Browsers need the 'svg' namespace defined.
@@ -112,39 +325,625 @@ public class PerDocumentSvgCache {
         }
       }
     }
+    return svgFrag;
+  }
+  
+  /**
+   * Serializes a copy of an element.
+   * 
+   * @param svgFrag The copy.
+   * 
+   * @return The serialized content.
+   * 
+   * @throws BadLocationException
+   */
+  private SvgContentBuffer serialize(AuthorDocumentFragment svgFrag) throws BadLocationException {
+    long start = System.nanoTime();
     String xml = docController.serializeFragmentToXML(svgFrag);
-    svgElements.put(elemId, xml);
-    if (svgElements.size() > 2 * lastCompactedCacheSize) {
-      compactCache();
+    // The XML is encoded in small steps, so the String is the only full copy on the heap.
+    SvgContentBuffer content = SvgPluginOptions.isMinify()
+        ? SvgMinifier.minify(xml, SvgPluginOptions.getMinifyPrecision())
+        : SvgContentBuffer.encode(xml);
+    SvgMetrics.freezeDuration.recordSince(start);
+    SvgMetrics.freezes.increment();
+    SvgMetrics.serializedBytes.add(content.size());
+    return content;
+  }
+  
+  /**
+   * Stores the serialized content of an element. Must be called with the lock of the element held.
+   * 
+   * @param elemId The id of the element.
+   * @param entry The current entry of the element, or <code>null</code>.
+   * @param content The serialized content.
+   * @param dimensions The intrinsic size of the image, or <code>null</code>.
+   */
+  private void storeContent(long elemId, FrozenEntry entry, SvgContentBuffer content, SvgDimensions dimensions) {
+    if (entry == null || !entry.hasContent(content)) {
+      // Only new content is hashed and compressed.
+      setEntry(elemId, new FrozenEntry(elemId, SvgFragmentStore.intern(content), dimensions));
     }
-    return elemId;
   }
   
   /**
-   * Compact the cache, removing entries that correspond to stale AuthorElements.
+   * Replaces the entry of the given node.
+   * 
+   * @param elemId The id of the node.
+   * @param entry The new entry.
+   */
+  private void setEntry(long elemId, FrozenEntry entry) {
+    memoryUsage.addFragment(entry.digest, entry.weight);
+    FrozenEntry oldEntry = svgElements.put(elemId, entry);
+    if (oldEntry != null) {
+      oldEntry.release();
+    }
+    evictionQueue.add(entry);
+    if (queuedEntries.incrementAndGet() > 2 * svgElements.size() + 64 && evictionLock.tryLock()) {
+      // Many entries were replaced since the last eviction, drop them from the queue.
+      try {
+        evictionQueue.removeIf(queued -> queued.fragment == null);
+        queuedEntries.set(evictionQueue.size());
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+  }
+  
+  /**
+   * Evicts the least recently used fragments if the document or global memory budget is exceeded.
+   * 
+   * @param excludedId The id of the node that was just frozen and should not be evicted.
+   */
+  private void enforceMemoryBudget(long excludedId) {
+    long documentBudget = SvgPluginOptions.getDocumentMemoryBudget();
+    long documentBytes = memoryUsage.getBytes();
+    if (documentBytes > documentBudget) {
+      // Free a quarter more than needed so that eviction does not run on every freeze.
+      evict(documentBytes - documentBudget + documentBudget / 4, excludedId);
+    }
+    SvgMemoryBudget.enforceGlobalBudget(this, excludedId);
+  }
+  
+  /**
+   * Evicts the least recently used fragments, unless another thread is already evicting from
+   * this document.
+   * 
+   * @param bytesToFree The number of bytes to free.
+   * @param excludedId The id of a node that should not be evicted.
+   * 
+   * @return The number of freed bytes.
    */
-  private void compactCache() {
-    HashSet<Long> valuesSet = new HashSet<>(nodeIndexer.values());
+  long evict(long bytesToFree, long excludedId) {
+    long freedBytes = 0;
+    if (evictionLock.tryLock()) {
+      try {
+        long start = System.nanoTime();
+        freedBytes = evictColdEntries(bytesToFree, excludedId);
+        SvgMetrics.evictions.increment();
+        SvgMetrics.evictionNanos.add(System.nanoTime() - start);
+        SvgMetrics.evictedBytes.add(freedBytes);
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+    return freedBytes;
+  }
+  
+  /**
+   * Evicts the fragments that were not used recently, with the CLOCK algorithm: the queue is
+   * visited in order, and the entries used since they were last visited get a second chance.
+   * 
+   * The cost is proportional to the number of visited entries, not to the size of the document.
+   * 
+   * @param bytesToFree The number of bytes to free.
+   * @param excludedId The id of a node that should not be evicted.
+   * 
+   * @return The number of freed bytes.
+   */
+  long evictColdEntries(long bytesToFree, long excludedId) {
+    SvgSegmentStore segmentStore = SvgSegmentStore.getInstance();
+    long freedBytes = 0;
+    // Two rounds are enough to evict every entry, even if all of them were used.
+    int visitsLeft = 2 * queuedEntries.get() + 1;
+    FrozenEntry entry;
+    while (freedBytes < bytesToFree && visitsLeft-- > 0 && (entry = evictionQueue.poll()) != null) {
+      SvgFragment fragment = entry.fragment;
+      if (fragment == null) {
+        // Replaced, expunged or already evicted.
+        queuedEntries.decrementAndGet();
+      } else if (entry.elemId == excludedId || entry.referenced) {
+        entry.referenced = false;
+        evictionQueue.add(entry);
+      } else {
+        queuedEntries.decrementAndGet();
+        // Keep a copy on disk, so that it can be served without freezing it again.
+        boolean spilled = segmentStore != null && segmentStore.spill(fragment);
+        freedBytes += entry.evict(spilled);
+      }
+    }
+    return freedBytes;
+  }
+  
+  /**
+   * Removes the entries that correspond to collected AuthorElements.
+   * 
+   * Only the entries of the elements collected since the last call are visited.
+   * 
+   * @return The number of removed entries.
+   */
+  int expungeStaleEntries() {
+    int removed = 0;
+    Reference<? extends AuthorElement> ref;
+    while ((ref = collectedElements.poll()) != null) {
+      long elemId = ((ElementReference) ref).elemId;
+      FrozenEntry entry = svgElements.remove(elemId);
+      if (entry != null) {
+        entry.release();
+      }
+      cleanElements.remove(elemId);
+      ElementReference removedRef = elementReferences.remove(elemId);
+      if (removedRef != null) {
+        setPendingCopy(removedRef, null);
+      }
+      removed++;
+    }
+    return removed;
+  }
+  
+  /**
+   * Weak reference to an indexed element, that remembers the element identifier.
+   */
+  private static final class ElementReference extends WeakReference<AuthorElement> {
+    /**
+     * The identifier of the element.
+     */
+    private final long elemId;
+    
+    /**
+     * The version of the element.
+     */
+    private volatile long version;
+    
+    /**
+     * The copy to freeze when the fragment is requested, if the element was registered lazily
+     * and not frozen since.
+     */
+    private final AtomicReference<PendingCopy> pendingCopy = new AtomicReference<>();
+    
+    /**
+     * Constructor.
+     * 
+     * @param elem The element.
+     * @param elemId The identifier of the element.
+     * @param queue The queue on which the reference is enqueued when the element is collected.
+     */
+    ElementReference(AuthorElement elem, long elemId, ReferenceQueue<AuthorElement> queue) {
+      super(elem, queue);
+      this.elemId = elemId;
+    }
+  }
+  
+  /**
+   * A copy of the subtree of an element, taken on the thread that edits the document.
+   */
+  private static final class PendingCopy {
+    /**
+     * The copy, detached from the document.
+     */
+    private final AuthorDocumentFragment fragment;
+    
+    /**
+     * The intrinsic size of the image, or <code>null</code>.
+     */
+    private final SvgDimensions dimensions;
+    
+    /**
+     * The version of the element when it was copied.
+     */
+    private final long version;
+    
+    /**
+     * The estimated number of bytes held by the copy. The size of a detached subtree cannot be
+     * measured, so the same estimate is used for all the copies.
+     */
+    private final long weight = SvgPluginOptions.getPendingCopyWeight();
+    
+    /**
+     * Constructor.
+     * 
+     * @param fragment The copy, detached from the document.
+     * @param dimensions The intrinsic size of the image, or <code>null</code>.
+     * @param version The version of the element when it was copied.
+     */
+    PendingCopy(AuthorDocumentFragment fragment, SvgDimensions dimensions, long version) {
+      this.fragment = fragment;
+      this.dimensions = dimensions;
+      this.version = version;
+    }
+  }
+  
+  /**
+   * The frozen state of an element. The fragment may be evicted from memory.
+   */
+  private final class FrozenEntry {
+    /**
+     * The id of the node.
+     */
+    private final long elemId;
+    
+    /**
+     * The digest of the fragment.
+     */
+    private final String digest;
+    
+    /**
+     * The bytes held by the fragment.
+     */
+    private final long weight;
+    
+    /**
+     * The length in bytes of the content.
+     */
+    private final int length;
+    
+    /**
+     * The number of elements of the fragment.
+     */
+    private final int elementCount;
+    
+    /**
+     * The intrinsic size of the image, <code>null</code> if it depends on the layout.
+     */
+    private final SvgDimensions dimensions;
+    
+    /**
+     * The fragment, <code>null</code> if it was evicted.
+     */
+    private volatile SvgFragment fragment;
+    
+    /**
+     * The compressed copy kept when the fragment was evicted and could not be spilled to disk, so
+     * that the URL with which the element was rendered can still be served. <code>null</code> otherwise.
+     */
+    private volatile SvgFragment.CompressedCopy compressedCopy;
+    
+    /**
+     * <code>true</code> if the fragment was used since the eviction last visited the entry.
+     */
+    private volatile boolean referenced;
+    
+    /**
+     * Constructor.
+     * 
+     * @param elemId The id of the node.
+     * @param fragment The fragment, already retained for this entry.
+     * @param dimensions The intrinsic size of the image, <code>null</code> if it depends on the layout.
+     */
+    FrozenEntry(long elemId, SvgFragment fragment, SvgDimensions dimensions) {
+      this.elemId = elemId;
+      this.digest = fragment.getDigest();
+      this.weight = fragment.getWeight();
+      this.length = fragment.getLength();
+      this.elementCount = fragment.getElementCount();
+      this.dimensions = dimensions;
+      this.fragment = fragment;
+    }
+    
+    /**
+     * @return The fragment, <code>null</code> if it was evicted.
+     */
+    SvgFragment getFragment() {
+      memoryUsage.touch();
+      SvgFragment currentFragment = fragment;
+      if (currentFragment != null && !referenced) {
+        // Written only when it changes, so that concurrent readers do not contend on it.
+        referenced = true;
+      }
+      return currentFragment;
+    }
+    
+    /**
+     * @return <code>true</code> if the fragment is in memory or was spilled to disk. The compressed
+     * copy of an evicted fragment only serves the URLs already rendered, so it does not count.
+     */
+    boolean isAvailable() {
+      if (getFragment() != null) {
+        return true;
+      }
+      SvgSegmentStore segmentStore = SvgSegmentStore.getInstance();
+      return segmentStore != null && segmentStore.contains(digest);
+    }
+    
+    /**
+     * @param content The UTF-8 encoded XML content.
+     * 
+     * @return <code>true</code> if the fragment is in memory and has the given content.
+     */
+    boolean hasContent(SvgContentBuffer content) {
+      SvgFragment currentFragment = getFragment();
+      return currentFragment != null && currentFragment.hasContent(content);
+    }
+    
+    /**
+     * Drops the fragment from memory. Its off-heap block is freed if no other entry holds it.
+     * 
+     * @param spilled <code>true</code> if the fragment was spilled to disk. Otherwise its
+     * compressed copy is kept, because the element may have been rendered with it.
+     * 
+     * @return The number of bytes freed by the document. The fragment stays accounted while
+     * other entries of the document hold it.
+     */
+    synchronized long evict(boolean spilled) {
+      SvgFragment evictedFragment = fragment;
+      if (evictedFragment == null) {
+        return 0;
+      }
+      long copyWeight = 0;
+      if (!spilled) {
+        compressedCopy = evictedFragment.compressedCopy();
+        if (compressedCopy != null) {
+          SvgFragmentStore.keepEvicted(compressedCopy);
+          copyWeight = compressedCopy.getWeight();
+          memoryUsage.add(copyWeight);
+        }
+      }
+      fragment = null;
+      evictedFragment.release();
+      return memoryUsage.removeFragment(digest, weight) - copyWeight;
+    }
+    
+    /**
+     * Drops the fragment and its compressed copy. Its off-heap block is freed if no other entry
+     * holds it.
+     */
+    synchronized void release() {
+      SvgFragment releasedFragment = fragment;
+      if (releasedFragment != null) {
+        fragment = null;
+        releasedFragment.release();
+        memoryUsage.removeFragment(digest, weight);
+      }
+      if (compressedCopy != null) {
+        memoryUsage.add(-compressedCopy.getWeight());
+        compressedCopy = null;
+      }
+    }
+  }
+  
+  /**
+   * Marks as dirty the frozen SVGs that contain the given node.
+   * 
+   * @param node The changed node.
+   */
+  private void markDirty(AuthorNode node) {
+    while (node != null && !elementReferences.isEmpty()) {
+      if (node instanceof AuthorElement) {
+        Long elemId = nodeIndexer.get(node);
+        if (elemId != null && isFrozenOrCopied(elemId)) {
+          // The version changes before the clean mark is removed, so that a copy being frozen
+          // concurrently either sees the new version or has its clean mark removed.
+          newVersion(elemId);
+          cleanElements.remove(elemId);
+        }
+      }
+      node = node.getParent();
+    }
+  }
+  
+  /**
+   * Marks all the frozen SVGs as dirty.
+   */
+  private void markAllDirty() {
+    for (Long elemId : elementReferences.keySet()) {
+      if (isFrozenOrCopied(elemId)) {
+        newVersion(elemId);
+        cleanElements.remove(elemId);
+      }
+    }
+  }
+  
+  /**
+   * @param elemId The id of an element.
+   * 
+   * @return <code>true</code> if the element is frozen and clean, or has a copy waiting to be frozen.
+   */
+  private boolean isFrozenOrCopied(long elemId) {
+    if (cleanElements.contains(elemId)) {
+      return true;
+    }
+    ElementReference ref = elementReferences.get(elemId);
+    return ref != null && ref.pendingCopy.get() != null;
+  }
+  
+  /**
+   * Changes the version of an element whose frozen state became stale.
+   * 
+   * @param elemId The id of the element.
+   */
+  private void newVersion(long elemId) {
+    ElementReference ref = elementReferences.get(elemId);
+    if (ref != null) {
+      ref.version = versionClock.incrementAndGet();
+    }
+  }
+  
+  /**
+   * Listener that invalidates the frozen SVGs affected by document changes.
+   */
+  private class ChangesListener extends AuthorListenerAdapter {
+    @Override
+    public void contentInserted(DocumentContentInsertedEvent e) {
+      markDirty(e.getParentNode());
+    }
     
-    svgElements.entrySet().removeIf(entry -> !valuesSet.contains(entry.getKey()));
+    @Override
+    public void contentDeleted(DocumentContentDeletedEvent e) {
+      markDirty(e.getParentNode());
+    }
     
-    lastCompactedCacheSize = svgElements.size();
+    @Override
+    public void attributeChanged(AttributeChangedEvent e) {
+      markDirty(e.getOwnerAuthorNode());
+    }
+    
+    @Override
+    public void authorNodeNameChanged(AuthorNode node) {
+      markDirty(node);
+    }
+    
+    @Override
+    public void authorNodeStructureChanged(AuthorNode node) {
+      markDirty(node);
+    }
+    
+    @Override
+    public void documentChanged(AuthorDocument oldDocument, AuthorDocument newDocument) {
+      markAllDirty();
+    }
   }
   
   /**
    * @return The size of the cache.
    */
   int getSize() {
+    expungeStaleEntries();
     return svgElements.size();
   }
   
+  /**
+   * @return The bytes held in memory by the frozen fragments of this document.
+   */
+  long getHeldBytes() {
+    return memoryUsage.getBytes();
+  }
+  
   /**
    * The XML fragment of the given node.
    * 
    * @param elemId
    * @return The XML fragment that corresponds to the given element
    */
-  public synchronized String getXmlFragment(long elemId) {
-    return svgElements.get(elemId);
+  public String getXmlFragment(long elemId) {
+    SvgFragment fragment = getFragment(elemId);
+    if (fragment == null || !fragment.retain()) {
+      // Evicted or freed since it was looked up.
+      return null;
+    }
+    try {
+      return fragment.getXml();
+    } finally {
+      fragment.release();
+    }
+  }
+  
+  /**
+   * The digest of the fragment of the given node. Does not freeze again evicted fragments.
+   * 
+   * @param elemId The id of the cache entry.
+   * @return The digest of the fragment that corresponds to the given element, or <code>null</code>.
+   */
+  public String getDigest(long elemId) {
+    FrozenEntry entry = svgElements.get(elemId);
+    return entry != null ? entry.digest : null;
+  }
+  
+  /**
+   * The length of the fragment of the given node.
+   * 
+   * @param elemId The id of the cache entry.
+   * @return The length in bytes of the content, or -1 if the node was not frozen.
+   */
+  public int getLength(long elemId) {
+    FrozenEntry entry = svgElements.get(elemId);
+    return entry != null ? entry.length : -1;
+  }
+  
+  /**
+   * The intrinsic size of the image of the given node.
+   * 
+   * @param elemId The id of the cache entry.
+   * @return The size, or <code>null</code> if it depends on the layout or the node was not frozen.
+   */
+  public SvgDimensions getDimensions(long elemId) {
+    FrozenEntry entry = svgElements.get(elemId);
+    return entry != null ? entry.dimensions : null;
+  }
+  
+  /**
+   * The number of elements of the fragment of the given node.
+   * 
+   * @param elemId The id of the cache entry.
+   * @return The number of elements, or -1 if the node was not frozen.
+   */
+  public int getElementCount(long elemId) {
+    FrozenEntry entry = svgElements.get(elemId);
+    return entry != null ? entry.elementCount : -1;
+  }
+  
+  /**
+   * The frozen fragment of the given node. Elements registered lazily are frozen now, from the
+   * copy taken when they were last rendered. The document is never read, so this can be called
+   * from any thread. Fragments evicted from memory are frozen again only when the node is rendered
+   * again.
+   * 
+   * @param elemId The id of the cache entry.
+   * @return The frozen fragment that corresponds to the given element, the last one frozen if the
+   * element changed and was not rendered since, or <code>null</code>.
+   */
+  public SvgFragment getFragment(long elemId) {
+    FrozenEntry entry = svgElements.get(elemId);
+    SvgFragment fragment = entry != null ? entry.getFragment() : null;
+    if (fragment == null || !cleanElements.contains(elemId)) {
+      SvgFragment current = freezeCopy(elemId);
+      if (current != null) {
+        fragment = current;
+      }
+    }
+    return fragment;
+  }
+  
+  /**
+   * Freezes the copy taken when an element registered lazily was rendered.
+   * 
+   * @param elemId The id of the element.
+   * @return The new fragment or <code>null</code> if there is no copy to freeze.
+   */
+  private SvgFragment freezeCopy(long elemId) {
+    ElementReference ref = elementReferences.get(elemId);
+    PendingCopy copy = ref != null ? ref.pendingCopy.get() : null;
+    if (copy == null) {
+      return null;
+    }
+    
+    Lock elementLock = elementLocks.get(elemId);
+    elementLock.lock();
+    try {
+      FrozenEntry entry = svgElements.get(elemId);
+      if (ref.pendingCopy.get() != copy) {
+        // Frozen by a concurrent request.
+        return entry != null ? entry.getFragment() : null;
+      }
+      cleanElements.add(elemId);
+      SvgContentBuffer content = null;
+      try {
+        content = serialize(copy.fragment);
+      } finally {
+        if (content == null || ref.version != copy.version) {
+          // Failed, or changed since it was copied. It is frozen again from the next copy.
+          cleanElements.remove(elemId);
+        }
+      }
+      storeContent(elemId, entry, content, copy.dimensions);
+      clearPendingCopy(ref, copy);
+    } catch (BadLocationException e) {
+      log.error(e, e);
+      return null;
+    } finally {
+      elementLock.unlock();
+    }
+    
+    enforceMemoryBudget(elemId);
+    FrozenEntry entry = svgElements.get(elemId);
+    return entry != null ? entry.getFragment() : null;
   }
 }
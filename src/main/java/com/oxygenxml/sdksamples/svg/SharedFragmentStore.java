@@ -0,0 +1,37 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.io.IOException;
+
+/**
+ * Store of frozen SVG fragments shared by all the nodes of a Web Author cluster, so that
+ * an SVG frozen on one node can be served by any other node.
+ *
+ * Implementations must have a public no-argument constructor to be selected with the
+ * <code>sharedStoreClass</code> option.
+ *
+ * The fragments are published from a single background thread, and looked up from the threads
+ * that serve requests.
+ */
+public interface SharedFragmentStore {
+
+  /**
+   * Publishes a fragment. A fragment that is already in the store is not written again, but the
+   * store may keep it longer.
+   *
+   * @param fragment The fragment, retained by the caller during the call.
+   *
+   * @throws IOException If the fragment could not be published.
+   */
+  void publish(SvgFragment fragment) throws IOException;
+
+  /**
+   * Looks up a fragment published by any node.
+   *
+   * @param digest The digest of the fragment, as received from the client.
+   *
+   * @return The fragment, or <code>null</code> if it was not published. The caller must release it.
+   *
+   * @throws IOException If the store could not be read.
+   */
+  SvgResource get(String digest) throws IOException;
+}
@@ -0,0 +1,253 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Growable buffer of serialized XML content, made of fixed-size chunks.
+ *
+ * Unlike a byte array stream, it never copies the content when it grows, so a large fragment
+ * is encoded in a small window and the content exists only once until the fragment is built.
+ */
+public class SvgContentBuffer extends OutputStream {
+
+  /**
+   * The size of a chunk.
+   */
+  private static final int CHUNK_SIZE = 64 * 1024;
+
+  /**
+   * The chunks. All but the last one are full.
+   */
+  private final List<byte[]> chunks = new ArrayList<>();
+
+  /**
+   * The number of bytes in the last chunk.
+   */
+  private int lastChunkSize = 0;
+
+  /**
+   * The total number of bytes.
+   */
+  private int size = 0;
+
+  /**
+   * Constructor of an empty buffer.
+   */
+  public SvgContentBuffer() {
+  }
+
+  /**
+   * Encodes the given XML content in UTF-8.
+   *
+   * @param xml The XML content.
+   *
+   * @return The buffer.
+   */
+  public static SvgContentBuffer encode(String xml) {
+    SvgContentBuffer buffer = new SvgContentBuffer();
+    buffer.writeEncoded(xml);
+    return buffer;
+  }
+
+  /**
+   * Wraps an array, without copying it.
+   *
+   * @param content The content. Must not be modified afterwards.
+   *
+   * @return The buffer.
+   */
+  public static SvgContentBuffer wrap(byte[] content) {
+    SvgContentBuffer buffer = new SvgContentBuffer();
+    if (content.length > 0) {
+      buffer.chunks.add(content);
+      buffer.lastChunkSize = content.length;
+      buffer.size = content.length;
+    }
+    return buffer;
+  }
+
+  /**
+   * Appends the UTF-8 encoding of the given text. The text is encoded in small steps.
+   *
+   * @param text The text.
+   */
+  public void writeEncoded(String text) {
+    try (Writer writer = new OutputStreamWriter(this, Charsets.UTF_8)) {
+      writer.write(text);
+    } catch (IOException e) {
+      // Cannot happen when writing in memory.
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void write(int b) {
+    if (isLastChunkFull()) {
+      addChunk();
+    }
+    chunks.get(chunks.size() - 1)[lastChunkSize++] = (byte) b;
+    size++;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    while (len > 0) {
+      if (isLastChunkFull()) {
+        addChunk();
+      }
+      int count = Math.min(len, CHUNK_SIZE - lastChunkSize);
+      System.arraycopy(b, off, chunks.get(chunks.size() - 1), lastChunkSize, count);
+      lastChunkSize += count;
+      size += count;
+      off += count;
+      len -= count;
+    }
+  }
+
+  /**
+   * Drops the content.
+   */
+  public void reset() {
+    chunks.clear();
+    lastChunkSize = 0;
+    size = 0;
+  }
+
+  /**
+   * @return The number of bytes.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return The SHA-256 digest of the content, in hex.
+   */
+  public String sha256Hex() {
+    MessageDigest digest = DigestUtils.getSha256Digest();
+    for (int i = 0; i < chunks.size(); i++) {
+      digest.update(chunks.get(i), 0, chunkSize(i));
+    }
+    return Hex.encodeHexString(digest.digest());
+  }
+
+  /**
+   * Writes the content.
+   *
+   * @param out The output stream.
+   *
+   * @throws IOException If the content could not be written.
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    for (int i = 0; i < chunks.size(); i++) {
+      out.write(chunks.get(i), 0, chunkSize(i));
+    }
+  }
+
+  /**
+   * Copies the content to a buffer.
+   *
+   * @param target The buffer, with enough remaining space.
+   */
+  public void copyTo(ByteBuffer target) {
+    for (int i = 0; i < chunks.size(); i++) {
+      target.put(chunks.get(i), 0, chunkSize(i));
+    }
+  }
+
+  /**
+   * @return The content in a single array. A wrapped array is returned without copying it.
+   */
+  public byte[] toByteArray() {
+    if (chunks.size() == 1 && lastChunkSize == chunks.get(0).length) {
+      return chunks.get(0);
+    }
+    byte[] content = new byte[size];
+    copyTo(ByteBuffer.wrap(content));
+    return content;
+  }
+
+  /**
+   * Compares the content with the given one, without copying it.
+   *
+   * @param other The other content.
+   *
+   * @return <code>true</code> if the content is the same.
+   */
+  public boolean contentEquals(ByteBuffer other) {
+    if (other.remaining() != size) {
+      return false;
+    }
+    ByteBuffer remaining = other.duplicate();
+    for (int i = 0; i < chunks.size(); i++) {
+      int chunkSize = chunkSize(i);
+      ByteBuffer otherChunk = remaining.duplicate();
+      otherChunk.limit(otherChunk.position() + chunkSize);
+      if (!ByteBuffer.wrap(chunks.get(i), 0, chunkSize).equals(otherChunk)) {
+        return false;
+      }
+      remaining.position(remaining.position() + chunkSize);
+    }
+    return true;
+  }
+
+  /**
+   * Counts the start tags of the content.
+   *
+   * @return The number of elements.
+   */
+  public int countElements() {
+    int count = 0;
+    boolean afterLessThan = false;
+    for (int i = 0; i < chunks.size(); i++) {
+      byte[] chunk = chunks.get(i);
+      int chunkSize = chunkSize(i);
+      for (int j = 0; j < chunkSize; j++) {
+        byte b = chunk[j];
+        // Names cannot start with '/', '!' or '?', which mark end tags, comments and processing instructions.
+        if (afterLessThan && b != '/' && b != '!' && b != '?') {
+          count++;
+        }
+        afterLessThan = b == '<';
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @param index The index of a chunk.
+   *
+   * @return The number of bytes in the chunk.
+   */
+  private int chunkSize(int index) {
+    return index == chunks.size() - 1 ? lastChunkSize : chunks.get(index).length;
+  }
+
+  /**
+   * @return <code>true</code> if a new chunk is needed for writing.
+   */
+  private boolean isLastChunkFull() {
+    return chunks.isEmpty() || lastChunkSize == chunks.get(chunks.size() - 1).length;
+  }
+
+  /**
+   * Adds an empty chunk.
+   */
+  private void addChunk() {
+    chunks.add(new byte[CHUNK_SIZE]);
+    lastChunkSize = 0;
+  }
+}
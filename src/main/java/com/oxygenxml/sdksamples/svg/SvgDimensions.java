@@ -0,0 +1,164 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+
+import ro.sync.ecss.extensions.api.node.AttrValue;
+import ro.sync.ecss.extensions.api.node.AuthorElement;
+
+/**
+ * The intrinsic size of an SVG image in CSS pixels, used to reserve its space in the
+ * layout before it is loaded.
+ */
+public class SvgDimensions {
+
+  /**
+   * A length with an optional unit.
+   */
+  private static final Pattern LENGTH = Pattern.compile("\\s*([0-9]*\\.?[0-9]+(?:[eE][-+]?[0-9]+)?)\\s*([a-zA-Z]*)\\s*");
+
+  /**
+   * The number of CSS pixels in each absolute unit.
+   */
+  private static final ImmutableMap<String, Double> PIXELS_PER_UNIT = ImmutableMap.<String, Double>builder()
+      .put("", 1.0)
+      .put("px", 1.0)
+      .put("in", 96.0)
+      .put("cm", 96 / 2.54)
+      .put("mm", 96 / 25.4)
+      .put("pt", 96 / 72.0)
+      .put("pc", 16.0)
+      .build();
+
+  /**
+   * Splitter for the values of the viewBox attribute.
+   */
+  private static final Splitter VIEW_BOX_SPLITTER = Splitter.on(Pattern.compile("[\\s,]+")).omitEmptyStrings();
+
+  /**
+   * The width.
+   */
+  private final int width;
+
+  /**
+   * The height.
+   */
+  private final int height;
+
+  /**
+   * Constructor.
+   *
+   * @param width The width.
+   * @param height The height.
+   */
+  SvgDimensions(int width, int height) {
+    this.width = width;
+    this.height = height;
+  }
+
+  /**
+   * @return The width in CSS pixels.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * @return The height in CSS pixels.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Computes the intrinsic size of an SVG element.
+   *
+   * @param svgElement The root element of the SVG.
+   *
+   * @return The size, or <code>null</code> if it depends on the layout.
+   */
+  public static SvgDimensions of(AuthorElement svgElement) {
+    return parse(getValue(svgElement, "width"), getValue(svgElement, "height"), getValue(svgElement, "viewBox"));
+  }
+
+  /**
+   * Computes the intrinsic size from the attributes of the root element.
+   *
+   * @param width The width attribute or <code>null</code>.
+   * @param height The height attribute or <code>null</code>.
+   * @param viewBox The viewBox attribute or <code>null</code>.
+   *
+   * @return The size, or <code>null</code> if it depends on the layout.
+   */
+  static SvgDimensions parse(String width, String height, String viewBox) {
+    double widthPx = toPixels(width);
+    double heightPx = toPixels(height);
+    double aspectRatio = getAspectRatio(viewBox);
+    if (width == null && height == null && aspectRatio > 0) {
+      // The browsers use the viewBox as the size when neither is specified.
+      List<String> values = VIEW_BOX_SPLITTER.splitToList(viewBox);
+      widthPx = Double.parseDouble(values.get(2));
+      heightPx = Double.parseDouble(values.get(3));
+    } else if (widthPx > 0 && height == null && aspectRatio > 0) {
+      heightPx = widthPx / aspectRatio;
+    } else if (heightPx > 0 && width == null && aspectRatio > 0) {
+      widthPx = heightPx * aspectRatio;
+    }
+    return widthPx > 0 && heightPx > 0 ? new SvgDimensions((int) Math.round(widthPx), (int) Math.round(heightPx)) : null;
+  }
+
+  /**
+   * @param length The length attribute or <code>null</code>.
+   *
+   * @return The length in CSS pixels, or -1 if it is missing or depends on the layout.
+   */
+  private static double toPixels(String length) {
+    if (length != null) {
+      Matcher matcher = LENGTH.matcher(length);
+      if (matcher.matches()) {
+        Double pixelsPerUnit = PIXELS_PER_UNIT.get(matcher.group(2).toLowerCase(Locale.ROOT));
+        if (pixelsPerUnit != null) {
+          return Double.parseDouble(matcher.group(1)) * pixelsPerUnit;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @param viewBox The viewBox attribute or <code>null</code>.
+   *
+   * @return The width to height ratio of the viewBox, or -1 if it is missing or invalid.
+   */
+  private static double getAspectRatio(String viewBox) {
+    if (viewBox != null) {
+      List<String> values = VIEW_BOX_SPLITTER.splitToList(viewBox);
+      try {
+        if (values.size() == 4) {
+          double width = Double.parseDouble(values.get(2));
+          double height = Double.parseDouble(values.get(3));
+          return width > 0 && height > 0 ? width / height : -1;
+        }
+      } catch (NumberFormatException e) {
+        // Invalid viewBox, ignored by browsers too.
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @param element The element.
+   * @param name The name of the attribute.
+   *
+   * @return The value of the attribute, or <code>null</code> if it is not specified.
+   */
+  private static String getValue(AuthorElement element, String name) {
+    AttrValue value = element.getAttribute(name);
+    return value != null ? value.getValue() : null;
+  }
+}
@@ -0,0 +1,66 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The layout of the directories in which fragments and the content derived from them are stored
+ * in files named after their digest.
+ */
+final class SvgFiles {
+
+  /**
+   * Private constructor.
+   */
+  private SvgFiles() {
+  }
+
+  /**
+   * @param directory The root directory.
+   * @param name The name of the file, starting with a digest.
+   *
+   * @return The file, in a sub-directory named after the first characters of the digest, so that
+   * no directory gets too many entries.
+   */
+  static Path resolve(Path directory, String name) {
+    return directory.resolve(name.substring(0, 2)).resolve(name);
+  }
+
+  /**
+   * @param directory The root directory.
+   *
+   * @return The files in the root directory and its sub-directories.
+   *
+   * @throws IOException If the directory could not be read.
+   */
+  static List<Path> list(Path directory) throws IOException {
+    try (Stream<Path> walk = Files.walk(directory, 2)) {
+      return walk.filter(Files::isRegularFile).collect(Collectors.toCollection(ArrayList::new));
+    }
+  }
+
+  /**
+   * Moves a file written under a temporary name in place.
+   *
+   * @param source The temporary file, deleted if it could not be moved.
+   * @param target The final file.
+   *
+   * @throws IOException If the file could not be moved.
+   */
+  static void moveInPlace(Path source, Path target) throws IOException {
+    try {
+      Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(source);
+    }
+  }
+}
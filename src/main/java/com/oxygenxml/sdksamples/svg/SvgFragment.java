@@ -0,0 +1,483 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Immutable descriptor of a frozen SVG fragment: the UTF-8 encoded content, its precompressed
+ * variant and the information needed to validate it in HTTP caches.
+ *
+ * Everything is computed once, when the fragment is frozen, so that serving it does not
+ * need any encoding or hashing.
+ *
+ * In the off-heap storage mode the bytes are kept in {@link SvgOffHeapSlabs} blocks. The
+ * block is freed when the last holder releases the fragment, or when the fragment is
+ * garbage collected.
+ */
+public class SvgFragment implements SvgResource {
+  /**
+   * Frees the off-heap blocks of the fragments that were collected without being released.
+   */
+  private static final Cleaner CLEANER = Cleaner.create();
+
+  /**
+   * The UTF-8 encoded XML content.
+   */
+  private final ByteBuffer content;
+
+  /**
+   * The SHA-256 digest of the XML content, in hex.
+   */
+  private final String digest;
+
+  /**
+   * The time when the fragment was frozen, in milliseconds.
+   */
+  private final long frozenAt;
+
+  /**
+   * The gzip-compressed XML content, <code>null</code> if compression does not pay off.
+   */
+  private final ByteBuffer gzipped;
+
+  /**
+   * The number of elements of the fragment.
+   */
+  private final int elementCount;
+
+  /**
+   * The number of holders of an off-heap fragment. The block is freed when it gets to 0.
+   */
+  private final AtomicInteger holders = new AtomicInteger(1);
+
+  /**
+   * Frees the off-heap block, <code>null</code> if the content is on the heap.
+   */
+  private final Cleaner.Cleanable cleanable;
+
+  /**
+   * Constructor.
+   *
+   * @param xml The serialized XML content.
+   */
+  public SvgFragment(String xml) {
+    this(SvgContentBuffer.encode(xml));
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param content The UTF-8 encoded XML content. Must not be modified afterwards.
+   */
+  public SvgFragment(byte[] content) {
+    this(SvgContentBuffer.wrap(content));
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param content The UTF-8 encoded XML content. Must not be modified afterwards.
+   */
+  public SvgFragment(SvgContentBuffer content) {
+    this(content, content.sha256Hex());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param content The UTF-8 encoded XML content. Must not be modified afterwards.
+   * @param digest The SHA-256 digest of the content, in hex.
+   */
+  SvgFragment(SvgContentBuffer content, String digest) {
+    this(content, digest, compress(content, SvgPluginOptions.getCompressionThreshold()));
+  }
+
+  /**
+   * Constructor for content whose compressed variant is already known.
+   *
+   * @param content The UTF-8 encoded XML content. Must not be modified afterwards.
+   * @param digest The SHA-256 digest of the content, in hex.
+   * @param compressed The gzip-compressed content, <code>null</code> if compression does not pay off.
+   */
+  SvgFragment(SvgContentBuffer content, String digest, byte[] compressed) {
+    this.digest = digest;
+    this.frozenAt = System.currentTimeMillis();
+    this.elementCount = content.countElements();
+    if (SvgPluginOptions.isOffHeapStorage()) {
+      // The chunks are copied directly off-heap, without a contiguous copy on the heap.
+      int gzippedLength = compressed != null ? compressed.length : 0;
+      ByteBuffer block = SvgOffHeapSlabs.getInstance().allocate(content.size() + gzippedLength);
+      content.copyTo(block);
+      if (compressed != null) {
+        block.put(compressed);
+      }
+      this.content = region(block, 0, content.size());
+      this.gzipped = compressed != null ? region(block, content.size(), gzippedLength) : null;
+      this.cleanable = CLEANER.register(this, new BlockFreer(block));
+    } else {
+      this.content = ByteBuffer.wrap(content.toByteArray());
+      this.gzipped = compressed != null ? ByteBuffer.wrap(compressed) : null;
+      this.cleanable = null;
+    }
+  }
+
+  /**
+   * @return The serialized XML content.
+   */
+  public String getXml() {
+    acquire();
+    try {
+      return Charsets.UTF_8.decode(content.duplicate()).toString();
+    } finally {
+      release();
+    }
+  }
+
+  /**
+   * @return A read-only view of the UTF-8 encoded XML content.
+   */
+  public ByteBuffer getContentBuffer() {
+    return content.asReadOnlyBuffer();
+  }
+
+  @Override
+  public int getLength() {
+    return content.remaining();
+  }
+
+  /**
+   * @return The number of elements of the fragment, a measure of how expensive it is to render.
+   */
+  public int getElementCount() {
+    return elementCount;
+  }
+
+  /**
+   * @return The number of bytes held by the content and its compressed variant.
+   */
+  public long getWeight() {
+    return content.remaining() + (gzipped != null ? gzipped.remaining() : 0);
+  }
+
+  @Override
+  public String getDigest() {
+    return digest;
+  }
+
+  @Override
+  public long getFrozenAt() {
+    return frozenAt;
+  }
+
+  /**
+   * @return A read-only view of the gzip-compressed XML content or <code>null</code> if there
+   * is no compressed variant.
+   */
+  public ByteBuffer getGzippedBuffer() {
+    return gzipped != null ? gzipped.asReadOnlyBuffer() : null;
+  }
+
+  @Override
+  public int getGzippedLength() {
+    return gzipped != null ? gzipped.remaining() : -1;
+  }
+
+  @Override
+  public void writeContent(OutputStream out) throws IOException {
+    acquire();
+    try {
+      write(content.duplicate(), out);
+    } finally {
+      release();
+    }
+  }
+
+  @Override
+  public void writeGzipped(OutputStream out) throws IOException {
+    acquire();
+    try {
+      write(gzipped.duplicate(), out);
+    } finally {
+      release();
+    }
+  }
+
+  /**
+   * Copies the compressed content to the heap, so that the fragment can still be served after
+   * it is evicted from memory.
+   *
+   * @return The copy, or <code>null</code> if the fragment was already freed.
+   */
+  CompressedCopy compressedCopy() {
+    if (!retain()) {
+      return null;
+    }
+    try {
+      if (gzipped != null) {
+        byte[] bytes = new byte[gzipped.remaining()];
+        gzipped.duplicate().get(bytes);
+        return new CompressedCopy(digest, frozenAt, getLength(), bytes, true);
+      }
+      // Small fragments are compressed only now, most of them are never evicted.
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(getLength() / 4);
+      try (GZIPOutputStream gzipStream = new GZIPOutputStream(bytes)) {
+        write(content.duplicate(), gzipStream);
+      } catch (IOException e) {
+        // Cannot happen when writing in memory.
+        throw new UncheckedIOException(e);
+      }
+      if (bytes.size() < getLength()) {
+        return new CompressedCopy(digest, frozenAt, getLength(), bytes.toByteArray(), true);
+      }
+      byte[] raw = new byte[getLength()];
+      content.duplicate().get(raw);
+      return new CompressedCopy(digest, frozenAt, getLength(), raw, false);
+    } finally {
+      release();
+    }
+  }
+
+  /**
+   * Checks whether this fragment has the given content, without hashing it.
+   *
+   * @param otherContent The UTF-8 encoded XML content.
+   *
+   * @return <code>true</code> if the content is the same.
+   */
+  public boolean hasContent(SvgContentBuffer otherContent) {
+    acquire();
+    try {
+      return otherContent.contentEquals(content);
+    } finally {
+      release();
+    }
+  }
+
+  /**
+   * Adds a holder of the fragment.
+   *
+   * @return <code>false</code> if the off-heap block was already freed and the fragment cannot be used anymore.
+   */
+  @Override
+  public boolean retain() {
+    if (cleanable == null) {
+      return true;
+    }
+    int current;
+    do {
+      current = holders.get();
+      if (current == 0) {
+        return false;
+      }
+    } while (!holders.compareAndSet(current, current + 1));
+    return true;
+  }
+
+  /**
+   * Removes a holder of the fragment. The off-heap block is freed when the last holder is removed.
+   */
+  @Override
+  public void release() {
+    if (cleanable != null && holders.decrementAndGet() == 0) {
+      cleanable.clean();
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the off-heap block was freed.
+   */
+  boolean isFreed() {
+    return cleanable != null && holders.get() == 0;
+  }
+
+  /**
+   * Holds the fragment while its bytes are read.
+   */
+  private void acquire() {
+    if (!retain()) {
+      throw new IllegalStateException("The fragment " + digest + " was freed.");
+    }
+  }
+
+  /**
+   * Writes the remaining bytes of a buffer.
+   *
+   * @param buffer The buffer.
+   * @param out The output stream.
+   *
+   * @throws IOException If the bytes could not be written.
+   */
+  static void write(ByteBuffer buffer, OutputStream out) throws IOException {
+    if (buffer.hasArray()) {
+      out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    } else {
+      WritableByteChannel channel = Channels.newChannel(out);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+
+  /**
+   * @param block The block.
+   * @param offset The offset of the region.
+   * @param length The length of the region.
+   *
+   * @return A view of a region of the block.
+   */
+  private static ByteBuffer region(ByteBuffer block, int offset, int length) {
+    ByteBuffer region = block.duplicate();
+    region.limit(offset + length).position(offset);
+    return region.slice();
+  }
+
+  /**
+   * Compresses the given content.
+   *
+   * @param content The content.
+   * @param threshold The size in bytes below which the content is not compressed.
+   *
+   * @return The gzip-compressed content or <code>null</code> if compression does not pay off.
+   */
+  private static byte[] compress(SvgContentBuffer content, int threshold) {
+    if (content.size() < threshold) {
+      return null;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.size() / 4);
+    try (GZIPOutputStream gzipStream = new GZIPOutputStream(bytes)) {
+      content.writeTo(gzipStream);
+    } catch (IOException e) {
+      // Cannot happen when writing in memory.
+      throw new UncheckedIOException(e);
+    }
+    return bytes.size() < content.size() ? bytes.toByteArray() : null;
+  }
+
+  /**
+   * The compressed content of an evicted fragment, kept on the heap.
+   */
+  static final class CompressedCopy implements SvgResource {
+    /**
+     * The digest of the fragment.
+     */
+    private final String digest;
+
+    /**
+     * The time when the fragment was frozen.
+     */
+    private final long frozenAt;
+
+    /**
+     * The length of the uncompressed content.
+     */
+    private final int length;
+
+    /**
+     * The gzip-compressed content, or the content itself if compression does not pay off.
+     */
+    private final byte[] bytes;
+
+    /**
+     * <code>true</code> if the bytes are gzip-compressed.
+     */
+    private final boolean gzipped;
+
+    /**
+     * Constructor.
+     *
+     * @param digest The digest of the fragment.
+     * @param frozenAt The time when the fragment was frozen.
+     * @param length The length of the uncompressed content.
+     * @param bytes The gzip-compressed content, or the content itself.
+     * @param gzipped <code>true</code> if the bytes are gzip-compressed.
+     */
+    CompressedCopy(String digest, long frozenAt, int length, byte[] bytes, boolean gzipped) {
+      this.digest = digest;
+      this.frozenAt = frozenAt;
+      this.length = length;
+      this.bytes = bytes;
+      this.gzipped = gzipped;
+    }
+
+    /**
+     * @return The number of bytes held by the copy.
+     */
+    long getWeight() {
+      return bytes.length;
+    }
+
+    @Override
+    public String getDigest() {
+      return digest;
+    }
+
+    @Override
+    public long getFrozenAt() {
+      return frozenAt;
+    }
+
+    @Override
+    public int getLength() {
+      return length;
+    }
+
+    @Override
+    public int getGzippedLength() {
+      return gzipped ? bytes.length : -1;
+    }
+
+    @Override
+    public void writeContent(OutputStream out) throws IOException {
+      if (gzipped) {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+          ByteStreams.copy(in, out);
+        }
+      } else {
+        out.write(bytes);
+      }
+    }
+
+    @Override
+    public void writeGzipped(OutputStream out) throws IOException {
+      out.write(bytes);
+    }
+  }
+
+  /**
+   * Gives back the off-heap block of a fragment. Must not reference the fragment.
+   */
+  private static final class BlockFreer implements Runnable {
+    /**
+     * The block.
+     */
+    private final ByteBuffer block;
+
+    /**
+     * Constructor.
+     *
+     * @param block The block.
+     */
+    BlockFreer(ByteBuffer block) {
+      this.block = block;
+    }
+
+    @Override
+    public void run() {
+      SvgOffHeapSlabs.getInstance().free(block);
+    }
+  }
+}
@@ -0,0 +1,285 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * JVM-wide store of frozen SVG fragments, addressed by the digest of their content.
+ *
+ * Identical fragments frozen by different documents or sessions share a single instance.
+ * The store only keeps weak references, so a fragment lives as long as at least one
+ * {@link PerDocumentSvgCache} still references it.
+ */
+@Slf4j
+public class SvgFragmentStore {
+
+  /**
+   * The fragments indexed by their digest.
+   */
+  private static final Cache<String, SvgFragment> fragmentsByDigest = CacheBuilder.newBuilder()
+      .weakValues()
+      .build();
+
+  /**
+   * The compressed copies of the fragments evicted from memory and not spilled to disk, indexed by
+   * their digest. A copy lives as long as the entry of an element that was rendered with it.
+   */
+  private static final Cache<String, SvgResource> evictedByDigest = CacheBuilder.newBuilder()
+      .weakValues()
+      .build();
+
+  /**
+   * The store shared by the nodes of the cluster, or <code>null</code> if fragments are not shared.
+   */
+  private static final SharedFragmentStore sharedStore = createSharedStore();
+
+  /**
+   * The maximum number of fragments waiting to be published. They are kept in memory until then.
+   */
+  private static final int MAX_QUEUED_PUBLISHES = 1000;
+
+  /**
+   * Private constructor.
+   */
+  private SvgFragmentStore() {
+  }
+
+  /**
+   * Returns the canonical fragment for the given content, creating it if needed.
+   *
+   * @param content The UTF-8 encoded XML content. Must not be modified afterwards.
+   *
+   * @return The shared fragment with the same digest. The caller is a holder of the fragment and
+   * must release it.
+   */
+  public static SvgFragment intern(SvgContentBuffer content) {
+    String digest = content.sha256Hex();
+    while (true) {
+      AtomicBoolean created = new AtomicBoolean();
+      SvgFragment fragment;
+      try {
+        // The descriptor (and its compressed variant) is built only for new content.
+        fragment = fragmentsByDigest.get(digest, () -> {
+          created.set(true);
+          return newFragment(content, digest);
+        });
+      } catch (ExecutionException e) {
+        throw new IllegalStateException(e.getCause());
+      }
+      if (created.get()) {
+        publish(fragment);
+        return fragment;
+      }
+      if (fragment.retain()) {
+        return fragment;
+      }
+      // The off-heap block was freed by its last holder.
+      fragmentsByDigest.asMap().remove(digest, fragment);
+    }
+  }
+
+  /**
+   * Creates the fragment for new content, reusing the compressed variant from the persistent
+   * cache if it was computed before a restart.
+   *
+   * @param content The UTF-8 encoded XML content.
+   * @param digest The digest of the content.
+   *
+   * @return The new fragment.
+   */
+  private static SvgFragment newFragment(SvgContentBuffer content, String digest) {
+    SvgWarmCache warmCache = SvgWarmCache.getInstance();
+    if (warmCache == null || content.size() < SvgPluginOptions.getCompressionThreshold()) {
+      // Small fragments are not compressed.
+      return new SvgFragment(content, digest);
+    }
+    String key = digest + SvgWarmCache.GZIP_EXTENSION;
+    byte[] compressed = warmCache.get(key);
+    if (compressed != null) {
+      return new SvgFragment(content, digest, compressed);
+    }
+    SvgFragment fragment = new SvgFragment(content, digest);
+    ByteBuffer gzipped = fragment.getGzippedBuffer();
+    if (gzipped != null) {
+      warmCache.put(key, gzipped);
+    }
+    return fragment;
+  }
+
+  /**
+   * Returns the fragment with the given digest.
+   *
+   * @param digest The digest of the fragment.
+   *
+   * @return The fragment or <code>null</code> if it is not in memory. Fragments evicted from
+   * memory are not frozen again here, because the document cannot be read from request threads.
+   */
+  public static SvgFragment get(String digest) {
+    return digest != null ? getIfLive(digest) : null;
+  }
+
+  /**
+   * Makes the compressed copy of an evicted fragment available to {@link #getResource(String)}.
+   *
+   * @param copy The copy, held by the entry of the element that was evicted.
+   */
+  static void keepEvicted(SvgResource copy) {
+    evictedByDigest.asMap().putIfAbsent(copy.getDigest(), copy);
+  }
+
+  /**
+   * Returns the fragment with the given digest, from memory, from the compressed copy kept when it
+   * was evicted, from the copy spilled to disk or from the copy published by another node.
+   *
+   * @param digest The digest of the fragment.
+   *
+   * @return The fragment or <code>null</code> if it is neither in memory, nor evicted from a live
+   * element, nor on disk, nor in the shared store. The caller is a holder of the fragment and must release it.
+   */
+  public static SvgResource getResource(String digest) {
+    if (digest == null) {
+      return null;
+    }
+    // A fragment freed concurrently by its last holder is looked up in the next tier.
+    SvgResource resource = retained(getIfLive(digest));
+    if (resource == null) {
+      // Evicted, but still rendered in a document.
+      resource = evictedByDigest.getIfPresent(digest);
+    }
+    if (resource == null) {
+      SvgSegmentStore segmentStore = SvgSegmentStore.getInstance();
+      if (segmentStore != null) {
+        resource = retained(segmentStore.get(digest));
+      }
+    }
+    if (resource == null && sharedStore != null) {
+      // Frozen on another node of the cluster.
+      try {
+        resource = retained(sharedStore.get(digest));
+      } catch (IOException e) {
+        log.error(e, e);
+      }
+    }
+    return resource;
+  }
+
+  /**
+   * @param resource A resource or <code>null</code>.
+   *
+   * @return The resource with a new holder, or <code>null</code> if it was freed.
+   */
+  private static SvgResource retained(SvgResource resource) {
+    return resource != null && resource.retain() ? resource : null;
+  }
+
+  /**
+   * Publishes a new fragment to the shared store in the background, so that the other nodes can
+   * serve it. The thread that freezes the fragment does not wait for the shared store.
+   *
+   * @param fragment The fragment, held by the caller.
+   */
+  private static void publish(SvgFragment fragment) {
+    if (sharedStore != null && fragment.retain()) {
+      try {
+        PublisherHolder.EXECUTOR.execute(() -> {
+          try {
+            sharedStore.publish(fragment);
+          } catch (IOException e) {
+            log.error(e, e);
+          } finally {
+            fragment.release();
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // The other nodes freeze it again if they need it.
+        log.warn("Too many SVGs waiting to be published, " + fragment.getDigest() + " is not shared.");
+        fragment.release();
+      }
+    }
+  }
+
+  /**
+   * @return The configured shared store, or <code>null</code> if fragments are not shared. They
+   * are not shared if no URL signing key is configured.
+   */
+  private static SharedFragmentStore createSharedStore() {
+    String className = SvgPluginOptions.getSharedStoreClass();
+    String directory = SvgPluginOptions.getSharedStoreDirectory();
+    if ((className != null || directory != null) && SvgPluginOptions.getUrlSigningKey() == null) {
+      // With a random key per node, the URLs rendered by a node are rejected by the others.
+      log.error("The SVG fragments are not shared: a shared store needs the same URL signing key on all the nodes.");
+      return null;
+    }
+    if (className != null) {
+      try {
+        return Class.forName(className, true, SvgFragmentStore.class.getClassLoader())
+            .asSubclass(SharedFragmentStore.class)
+            .getDeclaredConstructor()
+            .newInstance();
+      } catch (ReflectiveOperationException | ClassCastException e) {
+        log.error(e, e);
+        return null;
+      }
+    }
+    return directory != null
+        ? new FileSystemFragmentStore(Paths.get(directory), SvgPluginOptions.getSharedStoreMaxBytes())
+        : null;
+  }
+
+  /**
+   * @param digest The digest of the fragment.
+   *
+   * @return The fragment if it is in memory and was not freed, <code>null</code> otherwise.
+   */
+  private static SvgFragment getIfLive(String digest) {
+    SvgFragment fragment = fragmentsByDigest.getIfPresent(digest);
+    return fragment != null && !fragment.isFreed() ? fragment : null;
+  }
+
+  /**
+   * @return The number of distinct fragments in the store.
+   */
+  static long getSize() {
+    fragmentsByDigest.cleanUp();
+    return fragmentsByDigest.size();
+  }
+
+  /**
+   * Holder of the executor, created only if fragments are shared.
+   */
+  private static final class PublisherHolder {
+    /**
+     * The single thread that publishes the fragments, so that a slow shared store is not written
+     * concurrently.
+     */
+    static final ExecutorService EXECUTOR = createExecutor();
+
+    /**
+     * @return An executor whose thread stops when there are no fragments to publish.
+     */
+    private static ExecutorService createExecutor() {
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<>(MAX_QUEUED_PUBLISHES),
+          new ThreadFactoryBuilder()
+            .setNameFormat("svg-publisher-%d")
+            .setDaemon(true)
+            .build());
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+    }
+  }
+}
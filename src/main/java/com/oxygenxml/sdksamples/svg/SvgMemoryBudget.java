@@ -0,0 +1,371 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Accounts the bytes held by the frozen SVG fragments of all the open documents and keeps
+ * them within the global budget, evicting from the documents that were not used for the
+ * longest time first.
+ *
+ * A fragment shared by digest is counted once in the total, and once in each document that
+ * holds it, however many of its elements have the same content.
+ */
+public class SvgMemoryBudget {
+
+  /**
+   * The bytes held by all the open documents.
+   */
+  private static final AtomicLong totalBytes = new AtomicLong();
+
+  /**
+   * The number of open documents that hold each fragment, by digest.
+   */
+  private static final ConcurrentMap<String, HeldFragment> heldFragments = new ConcurrentHashMap<>();
+
+  /**
+   * Queue on which the usage of closed documents is enqueued.
+   */
+  private static final ReferenceQueue<PerDocumentSvgCache> closedDocuments = new ReferenceQueue<>();
+
+  /**
+   * The usage of the open documents. Keeps the references reachable until they are enqueued.
+   */
+  private static final Set<DocumentUsage> documents = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Numbers the documents, to tell them apart in the reports without exposing their IDs.
+   */
+  private static final AtomicLong documentCounter = new AtomicLong();
+
+  /**
+   * Lock that makes sure only one thread enforces the global budget at a time.
+   */
+  private static final Lock governorLock = new ReentrantLock();
+
+  /**
+   * Private constructor.
+   */
+  private SvgMemoryBudget() {
+  }
+
+  /**
+   * Starts accounting the bytes of a document.
+   *
+   * @param cache The cache of the document.
+   *
+   * @return The usage of the document.
+   */
+  static DocumentUsage register(PerDocumentSvgCache cache) {
+    expungeClosedDocuments();
+    DocumentUsage usage = new DocumentUsage(cache);
+    documents.add(usage);
+    return usage;
+  }
+
+  /**
+   * @return The bytes held by all the open documents.
+   */
+  public static long getTotalBytes() {
+    expungeClosedDocuments();
+    return totalBytes.get();
+  }
+
+  /**
+   * @return The number of bytes that should be freed to get back within the global budget.
+   */
+  static long getGlobalExcess() {
+    long budget = SvgPluginOptions.getGlobalMemoryBudget();
+    long total = getTotalBytes();
+    return total > budget ? total - budget + budget / 4 : 0;
+  }
+
+  /**
+   * Evicts fragments if the global budget is exceeded, from the coldest documents first.
+   *
+   * @param current The document that just froze a fragment.
+   * @param excludedId The id of the node that was just frozen and should not be evicted.
+   */
+  static void enforceGlobalBudget(PerDocumentSvgCache current, long excludedId) {
+    long bytesToFree = getGlobalExcess();
+    if (bytesToFree > 0 && governorLock.tryLock()) {
+      try {
+        long freedBytes = 0;
+        for (DocumentSnapshot document : getDocumentUsage(Comparator.comparingLong(DocumentSnapshot::getLastAccess))) {
+          if (freedBytes >= bytesToFree) {
+            break;
+          }
+          PerDocumentSvgCache cache = document.usage.get();
+          if (cache != null && document.bytes > 0) {
+            freedBytes += cache.evict(bytesToFree - freedBytes, cache == current ? excludedId : -1);
+          }
+        }
+      } finally {
+        governorLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * @return The usage of the open documents, largest first.
+   */
+  public static List<DocumentSnapshot> getDocumentUsage() {
+    return getDocumentUsage(Comparator.comparingLong(DocumentSnapshot::getBytes).reversed());
+  }
+
+  /**
+   * @param order The order of the documents.
+   *
+   * @return The usage of the open documents.
+   */
+  private static List<DocumentSnapshot> getDocumentUsage(Comparator<DocumentSnapshot> order) {
+    expungeClosedDocuments();
+    // The usage is copied, so that it does not change while it is sorted.
+    List<DocumentSnapshot> snapshots = new ArrayList<>(documents.size());
+    for (DocumentUsage usage : documents) {
+      snapshots.add(new DocumentSnapshot(usage));
+    }
+    snapshots.sort(order);
+    return snapshots;
+  }
+
+  /**
+   * Releases the bytes of the documents that were closed.
+   */
+  private static void expungeClosedDocuments() {
+    Reference<? extends PerDocumentSvgCache> ref;
+    while ((ref = closedDocuments.poll()) != null) {
+      DocumentUsage usage = (DocumentUsage) ref;
+      long ownBytes = usage.bytes.getAndSet(0);
+      for (String digest : usage.fragments.keySet()) {
+        // The fragments are removed from the total when their last document is closed.
+        ownBytes -= removeHolder(digest);
+      }
+      usage.fragments.clear();
+      totalBytes.addAndGet(-ownBytes);
+      documents.remove(usage);
+    }
+  }
+
+  /**
+   * Records that a document holds a fragment.
+   *
+   * @param digest The digest of the fragment.
+   * @param weight The bytes held by the fragment.
+   */
+  private static void addHolder(String digest, long weight) {
+    heldFragments.compute(digest, (key, held) -> {
+      if (held == null) {
+        totalBytes.addAndGet(weight);
+        return new HeldFragment(weight);
+      }
+      held.documents++;
+      return held;
+    });
+  }
+
+  /**
+   * Records that a document does not hold a fragment anymore.
+   *
+   * @param digest The digest of the fragment.
+   *
+   * @return The bytes held by the fragment.
+   */
+  private static long removeHolder(String digest) {
+    long[] weight = new long[1];
+    heldFragments.computeIfPresent(digest, (key, held) -> {
+      weight[0] = held.weight;
+      if (--held.documents == 0) {
+        totalBytes.addAndGet(-held.weight);
+        return null;
+      }
+      return held;
+    });
+    return weight[0];
+  }
+
+  /**
+   * A fragment held by some of the open documents. Guarded by the lock of its map entry.
+   */
+  private static final class HeldFragment {
+    /**
+     * The bytes held by the fragment.
+     */
+    private final long weight;
+
+    /**
+     * The number of documents that hold the fragment.
+     */
+    private int documents = 1;
+
+    /**
+     * Constructor.
+     *
+     * @param weight The bytes held by the fragment.
+     */
+    HeldFragment(long weight) {
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * The bytes held by one document.
+   */
+  static final class DocumentUsage extends WeakReference<PerDocumentSvgCache> {
+    /**
+     * The bytes held by the document.
+     */
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * The number of entries of the document that hold each fragment, by digest.
+     */
+    private final ConcurrentMap<String, Integer> fragments = new ConcurrentHashMap<>();
+
+    /**
+     * The number of the document.
+     */
+    private final long documentNumber = documentCounter.incrementAndGet();
+
+    /**
+     * The value of {@link System#nanoTime()} when the document was last used.
+     */
+    private volatile long lastAccess = System.nanoTime();
+
+    /**
+     * Constructor.
+     *
+     * @param cache The cache of the document.
+     */
+    private DocumentUsage(PerDocumentSvgCache cache) {
+      super(cache, closedDocuments);
+    }
+
+    /**
+     * Records that the document was used.
+     */
+    void touch() {
+      lastAccess = System.nanoTime();
+    }
+
+    /**
+     * Records a change of the held bytes.
+     *
+     * @param delta The number of added bytes, negative if bytes were released.
+     */
+    void add(long delta) {
+      bytes.addAndGet(delta);
+      totalBytes.addAndGet(delta);
+    }
+
+    /**
+     * Records that an entry of the document holds a fragment. The fragment is counted when its
+     * first entry in the document holds it.
+     *
+     * @param digest The digest of the fragment.
+     * @param weight The bytes held by the fragment.
+     */
+    void addFragment(String digest, long weight) {
+      fragments.compute(digest, (key, entries) -> {
+        if (entries == null) {
+          bytes.addAndGet(weight);
+          addHolder(digest, weight);
+          return 1;
+        }
+        return entries + 1;
+      });
+    }
+
+    /**
+     * Records that an entry of the document does not hold a fragment anymore.
+     *
+     * @param digest The digest of the fragment.
+     * @param weight The bytes held by the fragment.
+     *
+     * @return The bytes released by the document: the weight if it was the last entry that held
+     * the fragment, 0 otherwise.
+     */
+    long removeFragment(String digest, long weight) {
+      long[] released = new long[1];
+      fragments.computeIfPresent(digest, (key, entries) -> {
+        if (entries > 1) {
+          return entries - 1;
+        }
+        bytes.addAndGet(-weight);
+        removeHolder(digest);
+        released[0] = weight;
+        return null;
+      });
+      return released[0];
+    }
+
+    /**
+     * @return The bytes held by the document.
+     */
+    long getBytes() {
+      return bytes.get();
+    }
+  }
+
+  /**
+   * The usage of a document at some point in time.
+   */
+  public static final class DocumentSnapshot {
+    /**
+     * The usage of the document.
+     */
+    private final DocumentUsage usage;
+
+    /**
+     * The bytes held by the document.
+     */
+    private final long bytes;
+
+    /**
+     * The value of {@link System#nanoTime()} when the document was last used.
+     */
+    private final long lastAccess;
+
+    /**
+     * Constructor.
+     *
+     * @param usage The usage of the document.
+     */
+    private DocumentSnapshot(DocumentUsage usage) {
+      this.usage = usage;
+      this.bytes = usage.getBytes();
+      this.lastAccess = usage.lastAccess;
+    }
+
+    /**
+     * @return The number of the document, in the order in which the documents were opened.
+     */
+    public long getDocumentNumber() {
+      return usage.documentNumber;
+    }
+
+    /**
+     * @return The bytes held by the document.
+     */
+    public long getBytes() {
+      return bytes;
+    }
+
+    /**
+     * @return The value of {@link System#nanoTime()} when the document was last used.
+     */
+    public long getLastAccess() {
+      return lastAccess;
+    }
+  }
+}
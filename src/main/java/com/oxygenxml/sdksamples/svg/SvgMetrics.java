@@ -0,0 +1,239 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the work done by the plugin, exposed in the Prometheus text format.
+ *
+ * The counters are cheap enough to be always updated, even if they are never read.
+ */
+public class SvgMetrics {
+
+  /**
+   * The number of SVGs serialized.
+   */
+  static final LongAdder freezes = new LongAdder();
+
+  /**
+   * The number of freeze requests for SVGs that did not change since they were frozen.
+   */
+  static final LongAdder freezeHits = new LongAdder();
+
+  /**
+   * The time spent serializing SVGs.
+   */
+  static final Histogram freezeDuration = new Histogram();
+
+  /**
+   * The number of bytes of the serialized SVGs.
+   */
+  static final LongAdder serializedBytes = new LongAdder();
+
+  /**
+   * The number of times fragments were evicted to get back within the memory budget.
+   */
+  static final LongAdder evictions = new LongAdder();
+
+  /**
+   * The time spent evicting fragments, in nanoseconds.
+   */
+  static final LongAdder evictionNanos = new LongAdder();
+
+  /**
+   * The number of bytes freed by evictions.
+   */
+  static final LongAdder evictedBytes = new LongAdder();
+
+  /**
+   * The number of entries found in the persistent cache.
+   */
+  static final LongAdder warmCacheHits = new LongAdder();
+
+  /**
+   * The number of entries looked up in the persistent cache and not found.
+   */
+  static final LongAdder warmCacheMisses = new LongAdder();
+
+  /**
+   * The number of SVG form controls rendered.
+   */
+  static final LongAdder renders = new LongAdder();
+
+  /**
+   * The number of SVG form controls that could not be rendered.
+   */
+  static final LongAdder renderErrors = new LongAdder();
+
+  /**
+   * The number of servlet responses, by status code.
+   */
+  private static final Map<Integer, LongAdder> responses = new ConcurrentHashMap<>();
+
+  /**
+   * The number of body bytes sent by the servlet.
+   */
+  static final LongAdder responseBytes = new LongAdder();
+
+  /**
+   * The time spent handling servlet requests.
+   */
+  static final Histogram responseDuration = new Histogram();
+
+  /**
+   * Private constructor.
+   */
+  private SvgMetrics() {
+  }
+
+  /**
+   * Counts a servlet response.
+   *
+   * @param status The status code.
+   */
+  static void countResponse(int status) {
+    responses.computeIfAbsent(status, s -> new LongAdder()).increment();
+  }
+
+  /**
+   * Writes all the metrics.
+   *
+   * @param out The output.
+   */
+  public static void write(StringBuilder out) {
+    writeCounter(out, "svg_freeze_total", "SVGs serialized.", freezes.sum());
+    writeCounter(out, "svg_freeze_hit_total", "Freeze requests for SVGs that did not change.", freezeHits.sum());
+    freezeDuration.write(out, "svg_freeze_duration_seconds", "Time spent serializing an SVG.");
+    writeCounter(out, "svg_serialized_bytes_total", "Bytes of the serialized SVGs.", serializedBytes.sum());
+    writeCounter(out, "svg_eviction_total", "Evictions done to get back within the memory budget.", evictions.sum());
+    writeCounter(out, "svg_eviction_duration_seconds_total", "Time spent evicting fragments.", 
+        evictionNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1));
+    writeCounter(out, "svg_evicted_bytes_total", "Bytes freed by evictions.", evictedBytes.sum());
+    writeCounter(out, "svg_warm_cache_hit_total", "Entries found in the persistent cache.", warmCacheHits.sum());
+    writeCounter(out, "svg_warm_cache_miss_total", "Entries not found in the persistent cache.", warmCacheMisses.sum());
+    writeCounter(out, "svg_render_total", "SVG form controls rendered.", renders.sum());
+    writeCounter(out, "svg_render_error_total", "SVG form controls that could not be rendered.", renderErrors.sum());
+
+    writeHeader(out, "svg_servlet_response_total", "counter", "Servlet responses by status code.");
+    for (Map.Entry<Integer, LongAdder> response : new TreeMap<>(responses).entrySet()) {
+      out.append("svg_servlet_response_total{status=\"").append(response.getKey()).append("\"} ")
+        .append(response.getValue().sum()).append('\n');
+    }
+    writeCounter(out, "svg_servlet_response_bytes_total", "Body bytes sent by the servlet.", responseBytes.sum());
+    responseDuration.write(out, "svg_servlet_response_duration_seconds", "Time spent handling a servlet request.");
+
+    writeHeader(out, "svg_documents_open", "gauge", "Documents open in the editor.");
+    out.append("svg_documents_open ").append(EditingSessionContextManager.getDocumentCount()).append('\n');
+    writeHeader(out, "svg_memory_bytes", "gauge", "Bytes held by the frozen SVGs of the open documents.");
+    out.append("svg_memory_bytes ").append(SvgMemoryBudget.getTotalBytes()).append('\n');
+
+    List<SvgMemoryBudget.DocumentSnapshot> documents = SvgMemoryBudget.getDocumentUsage();
+    long now = System.nanoTime();
+    writeHeader(out, "svg_document_memory_bytes", "gauge", "Bytes held by the frozen SVGs of each open document.");
+    for (SvgMemoryBudget.DocumentSnapshot document : documents) {
+      out.append("svg_document_memory_bytes{document=\"").append(document.getDocumentNumber()).append("\"} ")
+        .append(document.getBytes()).append('\n');
+    }
+    writeHeader(out, "svg_document_idle_seconds", "gauge", "Time since each open document was last used.");
+    for (SvgMemoryBudget.DocumentSnapshot document : documents) {
+      out.append("svg_document_idle_seconds{document=\"").append(document.getDocumentNumber()).append("\"} ")
+        .append((now - document.getLastAccess()) / (double) TimeUnit.SECONDS.toNanos(1)).append('\n');
+    }
+  }
+
+  /**
+   * Writes a counter.
+   *
+   * @param out The output.
+   * @param name The name of the metric.
+   * @param help The description of the metric.
+   * @param value The value.
+   */
+  private static void writeCounter(StringBuilder out, String name, String help, Number value) {
+    writeHeader(out, name, "counter", help);
+    out.append(name).append(' ').append(value).append('\n');
+  }
+
+  /**
+   * Writes the description and the type of a metric.
+   *
+   * @param out The output.
+   * @param name The name of the metric.
+   * @param type The type of the metric.
+   * @param help The description of the metric.
+   */
+  private static void writeHeader(StringBuilder out, String name, String type, String help) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  /**
+   * Histogram of durations with fixed buckets.
+   */
+  static final class Histogram {
+    /**
+     * The upper bounds of the buckets, in seconds.
+     */
+    private static final double[] BOUNDS = {
+        0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    /**
+     * The number of observations in each bucket. The last one is for larger values.
+     */
+    private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+
+    /**
+     * The sum of the observations, in nanoseconds.
+     */
+    private final LongAdder sumNanos = new LongAdder();
+
+    /**
+     * Constructor.
+     */
+    Histogram() {
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param startNanos The value of {@link System#nanoTime()} at the start.
+     */
+    void recordSince(long startNanos) {
+      long nanos = System.nanoTime() - startNanos;
+      double seconds = nanos / (double) TimeUnit.SECONDS.toNanos(1);
+      int bucket = 0;
+      while (bucket < BOUNDS.length && seconds > BOUNDS[bucket]) {
+        bucket++;
+      }
+      buckets[bucket].increment();
+      sumNanos.add(nanos);
+    }
+
+    /**
+     * Writes the histogram.
+     *
+     * @param out The output.
+     * @param name The name of the metric.
+     * @param help The description of the metric.
+     */
+    void write(StringBuilder out, String name, String help) {
+      writeHeader(out, name, "histogram", help);
+      long count = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        count += buckets[i].sum();
+        String bound = i < BOUNDS.length ? BigDecimal.valueOf(BOUNDS[i]).stripTrailingZeros().toPlainString() : "+Inf";
+        out.append(name).append("_bucket{le=\"").append(bound).append("\"} ").append(count).append('\n');
+      }
+      out.append(name).append("_sum ").append(sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1)).append('\n');
+      out.append(name).append("_count ").append(count).append('\n');
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.io.IOException;
+
+import com.google.common.base.Charsets;
+
+import ro.sync.ecss.extensions.api.webapp.plugin.ServletPluginExtension;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.ServletException;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.http.HttpServletRequest;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that exposes the metrics of the plugin in the Prometheus text format.
+ */
+public class SvgMetricsServlet extends ServletPluginExtension {
+
+  /**
+   * The content type of the Prometheus text format.
+   */
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  /**
+   * Sends the current value of the metrics.
+   * 
+   * @param httpRequest The HTTP request.
+   * @param httpResponse The HTTP response.
+   */
+  @Override
+  public void doGet(HttpServletRequest httpRequest, HttpServletResponse httpResponse) throws ServletException, IOException {
+    if (!SvgPluginOptions.isMetricsEnabled()) {
+      httpResponse.sendError(HttpServletResponse.SC_NOT_FOUND, "Metrics are not enabled.");
+      return;
+    }
+    StringBuilder metrics = new StringBuilder();
+    SvgMetrics.write(metrics);
+    
+    byte[] body = metrics.toString().getBytes(Charsets.UTF_8);
+    httpResponse.setHeader("Cache-Control", "no-store");
+    httpResponse.setHeader("Content-Type", CONTENT_TYPE);
+    httpResponse.setContentLength(body.length);
+    httpResponse.getOutputStream().write(body);
+  }
+
+  /**
+   * The path where this servlet is mapped.
+   */
+  @Override
+  public String getPath() {
+    return "svg-metrics";
+  }
+}
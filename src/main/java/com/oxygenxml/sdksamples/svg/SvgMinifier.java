@@ -0,0 +1,343 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.EntityReference;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.ProcessingInstruction;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import com.google.common.collect.ImmutableSet;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Minifies the serialized SVG fragments in a single streaming pass: drops comments, indentation
+ * and the metadata added by drawing editors, and rounds the coordinates of paths and polygons.
+ *
+ * The edited document is not affected, only the frozen fragment sent to the browser.
+ */
+@Slf4j
+public class SvgMinifier {
+
+  /**
+   * The SVG namespace.
+   */
+  private static final String SVG_NAMESPACE = "http://www.w3.org/2000/svg";
+
+  /**
+   * The namespaces of the metadata added by Inkscape, Sodipodi and Illustrator.
+   */
+  private static final Set<String> EDITOR_NAMESPACES = ImmutableSet.of(
+      "http://www.inkscape.org/namespaces/inkscape",
+      "http://sodipodi.sourceforge.net/DTD/sodipodi-0.dtd",
+      "http://ns.adobe.com/AdobeIllustrator/10.0/",
+      "http://ns.adobe.com/AdobeSVGViewerExtensions/3.0/",
+      "http://ns.adobe.com/Extensibility/1.0/",
+      "http://ns.adobe.com/Graphs/1.0/",
+      "http://ns.adobe.com/SaveForWeb/1.0/",
+      "http://ns.adobe.com/Variables/1.0/",
+      "http://ns.adobe.com/ImageReplacement/1.0/",
+      "http://ns.adobe.com/GenericCustomNamespace/1.0/",
+      "http://ns.adobe.com/XPath/1.0/");
+
+  /**
+   * The SVG elements whose whitespace is significant.
+   */
+  private static final Set<String> TEXT_ELEMENTS = ImmutableSet.of("text", "tspan", "textPath", "style", "script");
+
+  /**
+   * A number in path data or in a list of points.
+   */
+  private static final Pattern NUMBER = Pattern.compile("-?(?:\\d+\\.\\d*|\\.\\d+)(?:[eE][-+]?\\d+)?");
+
+  /**
+   * Arc commands, whose flags may be written without separators.
+   */
+  private static final Pattern ARC_COMMAND = Pattern.compile("[aA]");
+
+  /**
+   * Input factory. Factories are thread-safe once configured.
+   */
+  private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+  /**
+   * Output factory.
+   */
+  private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+  /**
+   * <code>true</code> after a fragment could not be parsed, so that the next ones are only
+   * logged at debug level.
+   */
+  private static final AtomicBoolean parseErrorLogged = new AtomicBoolean();
+
+  /**
+   * Private constructor.
+   */
+  private SvgMinifier() {
+  }
+
+  /**
+   * Minifies a serialized SVG fragment. The output is produced while the input is parsed.
+   *
+   * @param xml The serialized XML content.
+   * @param precision The number of decimals kept in the coordinates.
+   *
+   * @return The UTF-8 encoded minified content, or the encoded XML content if it could not be parsed.
+   */
+  public static SvgContentBuffer minify(String xml, int precision) {
+    SvgContentBuffer out = new SvgContentBuffer();
+    try {
+      XMLEventReader reader = INPUT_FACTORY.createXMLEventReader(new StringReader(xml));
+      XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+      try {
+        copy(reader, writer, precision);
+      } finally {
+        reader.close();
+        writer.close();
+      }
+    } catch (XMLStreamException e) {
+      // The same documents are frozen again after each edit, so the error would repeat.
+      if (parseErrorLogged.compareAndSet(false, true)) {
+        log.warn("SVG fragments that cannot be parsed are not minified: " + e.getMessage());
+      } else {
+        log.debug(e.getMessage(), e);
+      }
+      out.reset();
+      out.writeEncoded(xml);
+    }
+    return out;
+  }
+
+  /**
+   * Copies the events that are needed for rendering.
+   *
+   * @param reader The reader.
+   * @param writer The writer.
+   * @param precision The number of decimals kept in the coordinates.
+   *
+   * @throws XMLStreamException
+   */
+  private static void copy(XMLEventReader reader, XMLStreamWriter writer, int precision) throws XMLStreamException {
+    // Whether the whitespace is significant, for each open element.
+    Deque<Boolean> preserveSpace = new ArrayDeque<>();
+    preserveSpace.push(false);
+    while (reader.hasNext()) {
+      XMLEvent event = reader.nextEvent();
+      switch (event.getEventType()) {
+        case XMLEvent.START_ELEMENT:
+          StartElement startElement = event.asStartElement();
+          if (isEditorMetadata(startElement)) {
+            skipElement(reader);
+          } else {
+            writeStartElement(startElement, reader.peek().isEndElement(), writer, precision);
+            if (reader.peek().isEndElement()) {
+              reader.nextEvent();
+            } else {
+              preserveSpace.push(isSpacePreserved(startElement, preserveSpace.peek()));
+            }
+          }
+          break;
+        case XMLEvent.END_ELEMENT:
+          preserveSpace.pop();
+          writer.writeEndElement();
+          break;
+        case XMLEvent.CHARACTERS:
+        case XMLEvent.SPACE:
+          Characters characters = event.asCharacters();
+          if (preserveSpace.peek() || !characters.getData().trim().isEmpty()) {
+            writer.writeCharacters(characters.getData());
+          }
+          break;
+        case XMLEvent.CDATA:
+          writer.writeCData(event.asCharacters().getData());
+          break;
+        case XMLEvent.ENTITY_REFERENCE:
+          EntityReference reference = (EntityReference) event;
+          String replacement = reference.getDeclaration() != null ? reference.getDeclaration().getReplacementText() : null;
+          if (replacement != null) {
+            writer.writeCharacters(replacement);
+          } else {
+            // Not declared in the fragment, left for the browser to resolve.
+            writer.writeEntityRef(reference.getName());
+          }
+          break;
+        case XMLEvent.PROCESSING_INSTRUCTION:
+          ProcessingInstruction instruction = (ProcessingInstruction) event;
+          writer.writeProcessingInstruction(instruction.getTarget(), instruction.getData());
+          break;
+        default:
+          // Comments, the XML declaration and the end of the document are dropped.
+          break;
+      }
+    }
+  }
+
+  /**
+   * Writes a start tag, without the editor metadata.
+   *
+   * @param element The element.
+   * @param empty <code>true</code> if the element has no content.
+   * @param writer The writer.
+   * @param precision The number of decimals kept in the coordinates.
+   *
+   * @throws XMLStreamException
+   */
+  private static void writeStartElement(StartElement element, boolean empty, XMLStreamWriter writer, int precision)
+      throws XMLStreamException {
+    String prefix = element.getName().getPrefix();
+    String localName = element.getName().getLocalPart();
+    String namespace = element.getName().getNamespaceURI();
+    if (empty) {
+      writer.writeEmptyElement(prefix, localName, namespace);
+    } else {
+      writer.writeStartElement(prefix, localName, namespace);
+    }
+
+    for (Iterator<?> namespaces = element.getNamespaces(); namespaces.hasNext();) {
+      Namespace declaration = (Namespace) namespaces.next();
+      if (!EDITOR_NAMESPACES.contains(declaration.getNamespaceURI())) {
+        if (declaration.isDefaultNamespaceDeclaration()) {
+          writer.writeDefaultNamespace(declaration.getNamespaceURI());
+        } else {
+          writer.writeNamespace(declaration.getPrefix(), declaration.getNamespaceURI());
+        }
+      }
+    }
+
+    boolean roundCoordinates = SVG_NAMESPACE.equals(namespace)
+        && ("path".equals(localName) || "polygon".equals(localName) || "polyline".equals(localName));
+    for (Iterator<?> attributes = element.getAttributes(); attributes.hasNext();) {
+      Attribute attribute = (Attribute) attributes.next();
+      String attributeNamespace = attribute.getName().getNamespaceURI();
+      if (!EDITOR_NAMESPACES.contains(attributeNamespace)) {
+        String value = attribute.getValue();
+        String attributeName = attribute.getName().getLocalPart();
+        if (roundCoordinates && attributeNamespace.isEmpty()
+            && ("d".equals(attributeName) || "points".equals(attributeName))) {
+          value = roundNumbers(value, precision);
+        }
+        if (attributeNamespace.isEmpty()) {
+          writer.writeAttribute(attributeName, value);
+        } else {
+          writer.writeAttribute(attribute.getName().getPrefix(), attributeNamespace, attributeName, value);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param element The element.
+   *
+   * @return <code>true</code> if the element is only used by the editor that created the drawing.
+   */
+  private static boolean isEditorMetadata(StartElement element) {
+    String namespace = element.getName().getNamespaceURI();
+    return EDITOR_NAMESPACES.contains(namespace)
+        || SVG_NAMESPACE.equals(namespace) && "metadata".equals(element.getName().getLocalPart());
+  }
+
+  /**
+   * @param element The element.
+   * @param parentPreservesSpace Whether the whitespace of the parent is significant.
+   *
+   * @return <code>true</code> if the whitespace in the element is significant. It is significant
+   * in the content of other vocabularies, like the XHTML of a foreignObject.
+   */
+  private static boolean isSpacePreserved(StartElement element, boolean parentPreservesSpace) {
+    if (!SVG_NAMESPACE.equals(element.getName().getNamespaceURI())) {
+      return true;
+    }
+    Attribute xmlSpace = element.getAttributeByName(new QName(XMLConstants.XML_NS_URI, "space"));
+    if (xmlSpace != null) {
+      return "preserve".equals(xmlSpace.getValue());
+    }
+    return parentPreservesSpace || TEXT_ELEMENTS.contains(element.getName().getLocalPart());
+  }
+
+  /**
+   * Skips the rest of the current element.
+   *
+   * @param reader The reader, positioned after the start tag.
+   *
+   * @throws XMLStreamException
+   */
+  private static void skipElement(XMLEventReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      XMLEvent event = reader.nextEvent();
+      if (event.isStartElement()) {
+        depth++;
+      } else if (event.isEndElement()) {
+        depth--;
+      }
+    }
+  }
+
+  /**
+   * Rounds the decimal numbers in path data or in a list of points.
+   *
+   * @param value The attribute value.
+   * @param precision The number of decimals.
+   *
+   * @return The value with the numbers rounded.
+   */
+  static String roundNumbers(String value, int precision) {
+    if (ARC_COMMAND.matcher(value).find()) {
+      // Arc flags are not delimited, so a number cannot be shortened safely.
+      return value;
+    }
+    Matcher matcher = NUMBER.matcher(value);
+    StringBuffer rounded = new StringBuffer(value.length());
+    int previousEnd = -1;
+    String previousNumber = null;
+    while (matcher.find()) {
+      String number = new BigDecimal(matcher.group())
+          .setScale(precision, RoundingMode.HALF_UP)
+          .stripTrailingZeros()
+          .toPlainString()
+          .replaceFirst("^(-?)0\\.", "$1.");
+      // Numbers written one after the other must not merge once shortened.
+      boolean merges = matcher.start() == previousEnd && !number.startsWith("-")
+          && (!number.startsWith(".") || previousNumber.indexOf('.') == -1);
+      matcher.appendReplacement(rounded, merges ? " " + number : number);
+      previousEnd = matcher.end();
+      previousNumber = number;
+    }
+    matcher.appendTail(rounded);
+    return rounded.toString();
+  }
+
+  /**
+   * @return The input factory.
+   */
+  private static XMLInputFactory createInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    // The entities declared outside the fragment are reported, to be written back.
+    factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, false);
+    return factory;
+  }
+}
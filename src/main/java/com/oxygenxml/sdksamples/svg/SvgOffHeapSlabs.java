@@ -0,0 +1,160 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocator of off-heap blocks for the content of the frozen fragments.
+ *
+ * Direct memory is reserved in slabs that are split in blocks of power-of-two sizes. Freed
+ * blocks are reused for fragments of the same size class, so the slabs are never given back,
+ * but they are not scanned by the garbage collector either.
+ */
+public class SvgOffHeapSlabs {
+
+  /**
+   * The size of the smallest block.
+   */
+  private static final int MIN_BLOCK_SIZE = 256;
+
+  /**
+   * The allocator, created on first use.
+   */
+  private static volatile SvgOffHeapSlabs instance;
+
+  /**
+   * The size of a slab.
+   */
+  private final int slabSize;
+
+  /**
+   * The free blocks of each size class. Guarded by this.
+   */
+  private final Deque<ByteBuffer>[] freeBlocks;
+
+  /**
+   * The direct memory reserved by the allocator.
+   */
+  private final AtomicLong reservedBytes = new AtomicLong();
+
+  /**
+   * The bytes of the blocks in use.
+   */
+  private final AtomicLong usedBytes = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param slabSize The size of a slab.
+   */
+  @SuppressWarnings("unchecked")
+  SvgOffHeapSlabs(int slabSize) {
+    this.slabSize = Math.max(MIN_BLOCK_SIZE, slabSize);
+    this.freeBlocks = new Deque[sizeClass(this.slabSize) + 1];
+    for (int i = 0; i < freeBlocks.length; i++) {
+      freeBlocks[i] = new ArrayDeque<>();
+    }
+  }
+
+  /**
+   * @return The allocator.
+   */
+  public static SvgOffHeapSlabs getInstance() {
+    if (instance == null) {
+      synchronized (SvgOffHeapSlabs.class) {
+        if (instance == null) {
+          instance = new SvgOffHeapSlabs(SvgPluginOptions.getOffHeapSlabSize());
+        }
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Allocates a block.
+   *
+   * @param size The number of bytes needed.
+   *
+   * @return A direct buffer whose capacity is at least the given size, positioned at 0.
+   */
+  public ByteBuffer allocate(int size) {
+    int sizeClass = sizeClass(size);
+    if (sizeClass >= freeBlocks.length) {
+      // Too large to share a slab. It is freed by the garbage collector.
+      reservedBytes.addAndGet(size);
+      usedBytes.addAndGet(size);
+      return ByteBuffer.allocateDirect(size);
+    }
+
+    ByteBuffer block;
+    synchronized (this) {
+      Deque<ByteBuffer> blocks = freeBlocks[sizeClass];
+      if (blocks.isEmpty()) {
+        addSlab(sizeClass);
+      }
+      block = blocks.pop();
+    }
+    usedBytes.addAndGet(block.capacity());
+    block.clear();
+    return block;
+  }
+
+  /**
+   * Gives back a block. The block must not be used afterwards.
+   *
+   * @param block The block returned by {@link #allocate(int)}.
+   */
+  public void free(ByteBuffer block) {
+    usedBytes.addAndGet(-block.capacity());
+    int sizeClass = sizeClass(block.capacity());
+    if (sizeClass >= freeBlocks.length) {
+      reservedBytes.addAndGet(-block.capacity());
+    } else {
+      synchronized (this) {
+        freeBlocks[sizeClass].push(block);
+      }
+    }
+  }
+
+  /**
+   * @return The direct memory reserved by the allocator.
+   */
+  public long getReservedBytes() {
+    return reservedBytes.get();
+  }
+
+  /**
+   * @return The bytes of the blocks in use.
+   */
+  public long getUsedBytes() {
+    return usedBytes.get();
+  }
+
+  /**
+   * Reserves a new slab and splits it in free blocks of the given size class. Called with the lock held.
+   *
+   * @param sizeClass The size class.
+   */
+  private void addSlab(int sizeClass) {
+    int blockSize = MIN_BLOCK_SIZE << sizeClass;
+    ByteBuffer slab = ByteBuffer.allocateDirect(slabSize);
+    reservedBytes.addAndGet(slabSize);
+    for (int offset = 0; offset + blockSize <= slabSize; offset += blockSize) {
+      ByteBuffer block = slab.duplicate();
+      block.limit(offset + blockSize).position(offset);
+      freeBlocks[sizeClass].push(block.slice());
+    }
+  }
+
+  /**
+   * @param size The size of a block.
+   *
+   * @return The index of the smallest size class that fits the given size.
+   */
+  private static int sizeClass(int size) {
+    int blocks = (Math.max(size, MIN_BLOCK_SIZE) - 1) / MIN_BLOCK_SIZE;
+    return 32 - Integer.numberOfLeadingZeros(blocks);
+  }
+}
@@ -0,0 +1,213 @@
+package com.oxygenxml.sdksamples.svg;
+
+/**
+ * Tuning options of the SVG plugin, read from system properties.
+ */
+public class SvgPluginOptions {
+  /**
+   * Prefix of the system properties that configure the plugin.
+   */
+  private static final String PREFIX = "com.oxygenxml.sdksamples.svg.";
+
+  /**
+   * Private constructor.
+   */
+  private SvgPluginOptions() {
+  }
+
+  /**
+   * @return The size in bytes below which fragments are not compressed.
+   */
+  public static int getCompressionThreshold() {
+    return Integer.getInteger(PREFIX + "compressionThreshold", 1024);
+  }
+
+  /**
+   * @return The maximum number of bytes of frozen fragments held in memory for a document.
+   */
+  public static long getDocumentMemoryBudget() {
+    return Long.getLong(PREFIX + "documentMemoryBudget", 64L * 1024 * 1024);
+  }
+
+  /**
+   * @return The maximum number of bytes of frozen fragments held in memory for all the documents.
+   */
+  public static long getGlobalMemoryBudget() {
+    return Long.getLong(PREFIX + "globalMemoryBudget", 512L * 1024 * 1024);
+  }
+
+  /**
+   * @return The directory where fragments evicted from memory are spilled, or <code>null</code>
+   * if spilling to disk is disabled.
+   */
+  public static String getSpillDirectory() {
+    return System.getProperty(PREFIX + "spillDirectory");
+  }
+
+  /**
+   * @return The size in bytes of a spill segment file.
+   */
+  public static int getSpillSegmentSize() {
+    return Integer.getInteger(PREFIX + "spillSegmentSize", 64 * 1024 * 1024);
+  }
+
+  /**
+   * @return The maximum number of bytes spilled to disk.
+   */
+  public static long getSpillMaxBytes() {
+    return Long.getLong(PREFIX + "spillMaxBytes", 1024L * 1024 * 1024);
+  }
+
+  /**
+   * @return <code>true</code> if the frozen fragments should be stored outside the Java heap.
+   */
+  public static boolean isOffHeapStorage() {
+    return Boolean.getBoolean(PREFIX + "offHeapStorage");
+  }
+
+  /**
+   * @return The size in bytes of an off-heap slab.
+   */
+  public static int getOffHeapSlabSize() {
+    return Integer.getInteger(PREFIX + "offHeapSlabSize", 1024 * 1024);
+  }
+
+  /**
+   * @return The number of elements above which an SVG is rendered as a PNG preview, or -1
+   * if SVGs are never rasterized.
+   */
+  public static int getRasterThreshold() {
+    return Integer.getInteger(PREFIX + "rasterThreshold", 5000);
+  }
+
+  /**
+   * @return The maximum number of bytes of cached PNG previews.
+   */
+  public static long getRasterCacheSize() {
+    return Long.getLong(PREFIX + "rasterCacheSize", 32L * 1024 * 1024);
+  }
+
+  /**
+   * @return <code>true</code> if the frozen fragments should be minified.
+   */
+  public static boolean isMinify() {
+    return Boolean.getBoolean(PREFIX + "minify");
+  }
+
+  /**
+   * @return The number of decimals kept in the coordinates of minified paths and polygons.
+   */
+  public static int getMinifyPrecision() {
+    return Integer.getInteger(PREFIX + "minifyPrecision", 3);
+  }
+
+  /**
+   * @return The maximum number of SVG copies of a document waiting to be frozen until their image
+   * is requested. The SVGs rendered beyond it are frozen right away.
+   */
+  public static int getMaxPendingCopies() {
+    return Integer.getInteger(PREFIX + "maxPendingCopies", 2000);
+  }
+
+  /**
+   * @return The estimated number of bytes held by an SVG copy waiting to be frozen, accounted in
+   * the memory budget.
+   */
+  public static long getPendingCopyWeight() {
+    return Long.getLong(PREFIX + "pendingCopyWeight", 16L * 1024);
+  }
+
+  /**
+   * @return <code>true</code> if the client should load the visible SVGs in batches.
+   */
+  public static boolean isBatchLoading() {
+    return Boolean.getBoolean(PREFIX + "batchLoading");
+  }
+
+  /**
+   * @return The size in bytes below which fragments are embedded in the rendered HTML, or 0
+   * if fragments are never embedded.
+   */
+  public static int getInlineThreshold() {
+    return Integer.getInteger(PREFIX + "inlineThreshold", 1024);
+  }
+
+  /**
+   * @return <code>true</code> if the SVG elements should be frozen when their image is first
+   * requested, instead of when they are rendered.
+   */
+  public static boolean isLazyFreezing() {
+    return Boolean.getBoolean(PREFIX + "lazyFreezing");
+  }
+
+  /**
+   * @return <code>true</code> if all the SVGs of a document should be frozen in the background
+   * when it is opened.
+   */
+  public static boolean isPreWarm() {
+    return Boolean.getBoolean(PREFIX + "preWarm");
+  }
+
+  /**
+   * @return The number of threads that freeze SVGs in the background, shared by all the documents.
+   */
+  public static int getPreWarmThreads() {
+    return Integer.getInteger(PREFIX + "preWarmThreads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+  }
+
+  /**
+   * @return <code>true</code> if the metrics of the plugin should be exposed by the svg-metrics servlet.
+   */
+  public static boolean isMetricsEnabled() {
+    return Boolean.getBoolean(PREFIX + "metrics");
+  }
+
+  /**
+   * @return The directory of the fragment store shared by the nodes of the cluster, or
+   * <code>null</code> if the fragments are not shared. Requires a URL signing key.
+   */
+  public static String getSharedStoreDirectory() {
+    return System.getProperty(PREFIX + "sharedStoreDirectory");
+  }
+
+  /**
+   * @return The name of the {@link SharedFragmentStore} implementation, or <code>null</code> to
+   * use a {@link FileSystemFragmentStore} if a shared store directory is set. Requires a URL
+   * signing key.
+   */
+  public static String getSharedStoreClass() {
+    return System.getProperty(PREFIX + "sharedStoreClass");
+  }
+
+  /**
+   * @return The maximum number of bytes kept in the shared store directory. The fragments
+   * published first are deleted when it is exceeded.
+   */
+  public static long getSharedStoreMaxBytes() {
+    return Long.getLong(PREFIX + "sharedStoreMaxBytes", 1024L * 1024 * 1024);
+  }
+
+  /**
+   * @return The directory of the cache that keeps the compressed fragments and the previews
+   * across restarts, or <code>null</code> if they are only kept in memory.
+   */
+  public static String getWarmCacheDirectory() {
+    return System.getProperty(PREFIX + "warmCacheDirectory");
+  }
+
+  /**
+   * @return The maximum number of bytes kept in the persistent cache.
+   */
+  public static long getWarmCacheMaxBytes() {
+    return Long.getLong(PREFIX + "warmCacheMaxBytes", 256L * 1024 * 1024);
+  }
+
+  /**
+   * @return The key used to sign the SVG URLs, or <code>null</code> to use a random key. Required
+   * in cluster mode, where it must be the same on all the nodes, otherwise the fragments are not
+   * shared.
+   */
+  public static String getUrlSigningKey() {
+    return System.getProperty(PREFIX + "urlSigningKey");
+  }
+}
@@ -0,0 +1,213 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.lang.ref.WeakReference;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.text.BadLocationException;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.extern.slf4j.Slf4j;
+import ro.sync.ecss.extensions.api.AuthorDocumentController;
+import ro.sync.ecss.extensions.api.AuthorOperationException;
+import ro.sync.ecss.extensions.api.node.AuthorElement;
+import ro.sync.ecss.extensions.api.node.AuthorNode;
+
+/**
+ * Freezes all the SVGs of a document in the background when it is opened, so that they are
+ * already serialized when the browser requests them.
+ *
+ * The SVGs are found and copied on the thread that opens the document, which is the one that
+ * edits it, and only the copies are serialized in the background. The SVGs are frozen in document
+ * order, so the ones at the beginning of the document, that are visible first, are ready first.
+ * The documents take turns, so a large document does not delay the others.
+ */
+@Slf4j
+public class SvgPreWarmer {
+
+  /**
+   * The outermost SVG elements.
+   */
+  private static final String SVG_XPATH =
+      "//*[local-name() = 'svg' and namespace-uri() = 'http://www.w3.org/2000/svg']"
+      + "[not(ancestor::*[local-name() = 'svg' and namespace-uri() = 'http://www.w3.org/2000/svg'])]";
+
+  /**
+   * The maximum number of SVGs copied to be frozen in the background, per document.
+   */
+  static final int MAX_QUEUED_PER_DOCUMENT = 1000;
+
+  /**
+   * The maximum number of tasks waiting for a thread. Each document has at most one task per
+   * thread queued.
+   */
+  private static final int MAX_QUEUED_TASKS = 10000;
+
+  /**
+   * Private constructor.
+   */
+  private SvgPreWarmer() {
+  }
+
+  /**
+   * Starts freezing the SVGs of a document. Must be called on the thread that edits the document.
+   *
+   * @param controller The document controller.
+   * @param cache The cache of the document.
+   *
+   * @return Completed when all the SVGs that could be queued are frozen.
+   */
+  public static CompletableFuture<Void> preWarm(AuthorDocumentController controller, PerDocumentSvgCache cache) {
+    Queue<Long> elemIds = new ConcurrentLinkedQueue<>();
+    int queued = 0;
+    try {
+      AuthorNode[] nodes = controller.findNodesByXPath(SVG_XPATH, true, true, true);
+      for (int i = 0; nodes != null && i < nodes.length; i++) {
+        if (queued == MAX_QUEUED_PER_DOCUMENT) {
+          // The rest are frozen when rendered.
+          log.warn("Too many SVGs in the document, " + (nodes.length - i) + " SVGs are not pre-warmed.");
+          break;
+        }
+        if (nodes[i] instanceof AuthorElement) {
+          elemIds.add(cache.registerLazily((AuthorElement) nodes[i]));
+          queued++;
+        }
+      }
+    } catch (AuthorOperationException | BadLocationException e) {
+      log.error(e, e);
+    }
+
+    // The tasks do not keep a closed document in memory.
+    DocumentWarmer warmer = new DocumentWarmer(new WeakReference<>(cache), elemIds);
+    warmer.start(Math.min(SvgPluginOptions.getPreWarmThreads(), queued));
+    return warmer.done;
+  }
+
+  /**
+   * Freezes the copied SVGs of a document one at a time, going to the back of the executor queue
+   * after each of them, so that the documents opened meanwhile are served in turn.
+   */
+  private static final class DocumentWarmer implements Runnable {
+    /**
+     * The cache of the document.
+     */
+    private final WeakReference<PerDocumentSvgCache> cacheRef;
+
+    /**
+     * The ids of the SVGs not frozen yet, in document order.
+     */
+    private final Queue<Long> elemIds;
+
+    /**
+     * The number of tasks of this document queued or running.
+     */
+    private final AtomicInteger tasks = new AtomicInteger();
+
+    /**
+     * Completed when all the tasks of this document ended.
+     */
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    /**
+     * Constructor.
+     *
+     * @param cacheRef The cache of the document.
+     * @param elemIds The ids of the SVGs to freeze, in document order.
+     */
+    DocumentWarmer(WeakReference<PerDocumentSvgCache> cacheRef, Queue<Long> elemIds) {
+      this.cacheRef = cacheRef;
+      this.elemIds = elemIds;
+    }
+
+    /**
+     * Queues the tasks of this document.
+     *
+     * @param count The number of SVGs of the document frozen in parallel.
+     */
+    void start(int count) {
+      // All are counted first, so that the first one to end does not complete the document.
+      tasks.set(count);
+      for (int i = 0; i < count; i++) {
+        submit();
+      }
+      if (count == 0) {
+        done.complete(null);
+      }
+    }
+
+    /**
+     * Queues the current task of this document again.
+     */
+    private void submit() {
+      try {
+        ExecutorHolder.EXECUTOR.execute(this);
+      } catch (RejectedExecutionException e) {
+        // The rest are frozen when rendered.
+        log.warn("Too many SVGs waiting to be frozen, " + elemIds.size() + " SVGs are not pre-warmed.");
+        end();
+      }
+    }
+
+    @Override
+    public void run() {
+      PerDocumentSvgCache cache = cacheRef.get();
+      Long elemId = cache != null ? elemIds.poll() : null;
+      if (elemId == null) {
+        // Done, or the document was closed.
+        end();
+        return;
+      }
+      try {
+        // Only the copy taken when the document was opened is serialized.
+        cache.getFragment(elemId);
+      } catch (RuntimeException e) {
+        log.error(e, e);
+      }
+      submit();
+    }
+
+    /**
+     * Ends the current task of this document.
+     */
+    private void end() {
+      if (tasks.decrementAndGet() == 0) {
+        elemIds.clear();
+        done.complete(null);
+      }
+    }
+  }
+
+  /**
+   * Holder of the executor, created only if pre-warming is enabled.
+   */
+  private static final class ExecutorHolder {
+    /**
+     * The bounded executor shared by all the documents.
+     */
+    static final ExecutorService EXECUTOR = createExecutor();
+
+    /**
+     * @return An executor whose threads stop when there are no SVGs to freeze.
+     */
+    private static ExecutorService createExecutor() {
+      int threads = SvgPluginOptions.getPreWarmThreads();
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<>(MAX_QUEUED_TASKS),
+          new ThreadFactoryBuilder()
+            .setNameFormat("svg-pre-warmer-%d")
+            .setDaemon(true)
+            .setPriority(Thread.MIN_PRIORITY)
+            .build());
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+    }
+  }
+}
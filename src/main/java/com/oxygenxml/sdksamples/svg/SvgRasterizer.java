@@ -0,0 +1,227 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.batik.bridge.EmbededExternalResourceSecurity;
+import org.apache.batik.bridge.ExternalResourceSecurity;
+import org.apache.batik.bridge.NoLoadScriptSecurity;
+import org.apache.batik.bridge.ScriptSecurity;
+import org.apache.batik.bridge.UserAgent;
+import org.apache.batik.transcoder.TranscoderException;
+import org.apache.batik.transcoder.TranscoderInput;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.image.PNGTranscoder;
+import org.apache.batik.util.ParsedURL;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Rasterizes frozen SVG fragments to PNG previews, for the images that are too complex
+ * to be rendered quickly by browsers.
+ *
+ * The previews are cached by fragment digest and size, and the cache is bounded in bytes.
+ * The fragments come from the edited documents, so they cannot load external resources or run
+ * scripts while they are rasterized.
+ */
+public class SvgRasterizer {
+
+  /**
+   * The maximum width in pixels of a preview.
+   */
+  static final int MAX_WIDTH = 4096;
+
+  /**
+   * The maximum number of pixels of a preview, so that tall images do not exhaust the memory.
+   */
+  static final long MAX_PIXELS = 4096L * 4096;
+
+  /**
+   * The widths are rounded up to a multiple of this value, so that close sizes share a preview.
+   */
+  private static final int WIDTH_STEP = 64;
+
+  /**
+   * The maximum device pixel ratio.
+   */
+  private static final int MAX_DPR = 4;
+
+  /**
+   * The previews by digest and size.
+   */
+  private static final Cache<String, byte[]> previews = CacheBuilder.newBuilder()
+      .maximumWeight(SvgPluginOptions.getRasterCacheSize())
+      .weigher((String key, byte[] png) -> png.length)
+      .build();
+
+  /**
+   * Private constructor.
+   */
+  private SvgRasterizer() {
+  }
+
+  /**
+   * Returns the PNG preview of a fragment.
+   *
+   * @param fragment The fragment.
+   * @param width The width of the image in CSS pixels, or -1 for the intrinsic width of the SVG.
+   * @param dpr The device pixel ratio.
+   *
+   * @return The PNG image.
+   *
+   * @throws TranscoderException If the fragment could not be rasterized.
+   */
+  public static byte[] rasterize(SvgResource fragment, int width, int dpr) throws TranscoderException {
+    int normalizedWidth = normalizeWidth(width);
+    int normalizedDpr = normalizeDpr(dpr);
+    String key = fragment.getDigest() + "/" + normalizedWidth + "/" + normalizedDpr;
+    try {
+      return previews.get(key, () -> loadPreview(fragment, normalizedWidth, normalizedDpr));
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof TranscoderException) {
+        throw (TranscoderException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * @param width The requested width in CSS pixels, or -1.
+   *
+   * @return The width of the preview, rounded up to a multiple of {@link #WIDTH_STEP}.
+   */
+  static int normalizeWidth(int width) {
+    if (width <= 0) {
+      return -1;
+    }
+    int rounded = (width + WIDTH_STEP - 1) / WIDTH_STEP * WIDTH_STEP;
+    return Math.min(rounded, MAX_WIDTH);
+  }
+
+  /**
+   * @param dpr The requested device pixel ratio.
+   *
+   * @return The device pixel ratio of the preview.
+   */
+  static int normalizeDpr(int dpr) {
+    return Math.max(1, Math.min(dpr, MAX_DPR));
+  }
+
+  /**
+   * Returns a preview that is not in memory, from the persistent cache or by rasterizing the fragment.
+   *
+   * @param fragment The fragment.
+   * @param width The width of the image in CSS pixels, or -1.
+   * @param dpr The device pixel ratio.
+   *
+   * @return The PNG image.
+   *
+   * @throws TranscoderException If the fragment could not be rasterized.
+   * @throws IOException If the fragment could not be read.
+   */
+  private static byte[] loadPreview(SvgResource fragment, int width, int dpr) throws TranscoderException, IOException {
+    SvgWarmCache warmCache = SvgWarmCache.getInstance();
+    if (warmCache == null) {
+      return transcode(fragment, width, dpr);
+    }
+    String key = fragment.getDigest() + "-" + width + "-" + dpr + SvgWarmCache.PNG_EXTENSION;
+    byte[] png = warmCache.get(key);
+    if (png == null) {
+      png = transcode(fragment, width, dpr);
+      warmCache.put(key, ByteBuffer.wrap(png));
+    }
+    return png;
+  }
+
+  /**
+   * Rasterizes a fragment.
+   *
+   * @param fragment The fragment.
+   * @param width The width of the image in CSS pixels, or -1.
+   * @param dpr The device pixel ratio.
+   *
+   * @return The PNG image.
+   *
+   * @throws TranscoderException If the fragment could not be rasterized.
+   * @throws IOException If the fragment could not be read.
+   */
+  private static byte[] transcode(SvgResource fragment, int width, int dpr) throws TranscoderException, IOException {
+    ByteArrayOutputStream svg = new ByteArrayOutputStream(fragment.getLength());
+    fragment.writeContent(svg);
+
+    ScaledPNGTranscoder transcoder = new ScaledPNGTranscoder(dpr);
+    if (width != -1) {
+      transcoder.addTranscodingHint(PNGTranscoder.KEY_WIDTH, (float) width);
+    }
+    ByteArrayOutputStream png = new ByteArrayOutputStream();
+    transcoder.transcode(new TranscoderInput(new ByteArrayInputStream(svg.toByteArray())), new TranscoderOutput(png));
+    return png.toByteArray();
+  }
+
+  /**
+   * PNG transcoder that multiplies the size of the image by the device pixel ratio, and that
+   * only loads the resources embedded in the fragment.
+   */
+  private static final class ScaledPNGTranscoder extends PNGTranscoder {
+    /**
+     * The device pixel ratio.
+     */
+    private final int dpr;
+
+    /**
+     * Constructor.
+     *
+     * @param dpr The device pixel ratio.
+     */
+    ScaledPNGTranscoder(int dpr) {
+      this.dpr = dpr;
+    }
+
+    @Override
+    protected void setImageSize(float docWidth, float docHeight) {
+      super.setImageSize(docWidth, docHeight);
+      // Images with a large intrinsic size are capped to the maximum width and number of pixels.
+      float scale = Math.min(dpr, MAX_WIDTH * (float) dpr / Math.max(width, 1));
+      double pixels = (double) width * height * scale * scale;
+      if (pixels > MAX_PIXELS) {
+        scale *= (float) Math.sqrt(MAX_PIXELS / pixels);
+        // Rounded down, so that rounding the size of the image does not exceed the cap.
+        width = (float) Math.floor(width * scale);
+        height = (float) Math.floor(height * scale);
+      } else {
+        width *= scale;
+        height *= scale;
+      }
+    }
+
+    @Override
+    protected UserAgent createUserAgent() {
+      return new SandboxedUserAgent();
+    }
+
+    /**
+     * User agent that refuses the scripts and the resources that are not embedded as data URLs,
+     * so that rasterizing a fragment cannot read local files or make requests from the server.
+     */
+    private final class SandboxedUserAgent extends SVGAbstractTranscoderUserAgent {
+      @Override
+      public ScriptSecurity getScriptSecurity(String scriptType, ParsedURL scriptURL, ParsedURL docURL) {
+        return new NoLoadScriptSecurity(scriptType);
+      }
+
+      @Override
+      public ExternalResourceSecurity getExternalResourceSecurity(ParsedURL resourceURL, ParsedURL docURL) {
+        return new EmbededExternalResourceSecurity(resourceURL);
+      }
+
+      @Override
+      public boolean isAllowExternalResources() {
+        return false;
+      }
+    }
+  }
+}
@@ -3,7 +3,9 @@ package com.oxygenxml.sdksamples.svg;
 import java.io.IOException;
 import java.io.Writer;
 
-import org.apache.commons.codec.digest.DigestUtils;
+import javax.swing.text.BadLocationException;
+
+import com.google.common.base.Charsets;
 
 import lombok.extern.slf4j.Slf4j;
 import ro.sync.ecss.extensions.api.AuthorAccess;
@@ -20,6 +22,21 @@ import ro.sync.ecss.extensions.api.webapp.formcontrols.WebappFormControlRenderer
 @Slf4j
 public class SvgRenderer extends WebappFormControlRenderer {
 
+  /**
+   * The prefix of the data URIs of the embedded SVGs.
+   */
+  private static final String DATA_URI_PREFIX = "data:image/svg+xml,";
+  
+  /**
+   * The characters that must be percent-encoded in a data URI used in an HTML attribute.
+   */
+  private static final String DATA_URI_ESCAPED = "\"%#&<>'";
+  
+  /**
+   * The hexadecimal digits.
+   */
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
   /**
    * Render control.
    * 
@@ -31,6 +48,7 @@ public class SvgRenderer extends WebappFormControlRenderer {
   @Override
   public void renderControl(AuthorInplaceContext context, Writer out)
       throws IOException {
+    SvgMetrics.renders.increment();
     AuthorElement svgElement = context.getElem();
     
     AuthorAccess authorAccess = context.getAuthorAccess();
@@ -39,24 +57,142 @@ public class SvgRenderer extends WebappFormControlRenderer {
     
     PerDocumentSvgCache equationCache = 
         (PerDocumentSvgCache) editingContext.getAttribute(EditingSessionContextManager.SVG_CACHE);
-    String docId = (String) editingContext.getAttribute(EditingSessionContextManager.AUTHOR_ACCESS_ID);
 
     try {
+      if (SvgPluginOptions.isLazyFreezing()) {
+        renderLazily(svgElement, editingContext, equationCache, out);
+        return;
+      }
       long elemId = equationCache.freezeSvgFrag(svgElement);
-      String xmlSvgFrag = equationCache.getXmlFragment(elemId);
-      String svgHash = DigestUtils.sha256Hex(xmlSvgFrag);
+      String svgHash = equationCache.getDigest(elemId);
+      String signature = SvgUrlSigner.sign(svgHash);
 
       // The actual html fragment that is being sent to the browser. 
-      out.append("<img class=\"svg-image\" src=\"../plugins-dispatcher/svg?"
-          + "xmlSvgFragHash=" + svgHash + "&" 
-          + "elemId=" + elemId + "&" 
-          + "docId=" + docId + "\"></img>");
+      // The content is cached on the server by digest, and the signature grants access to it. The URL
+      // is the same in all the documents, so the browser reuses the SVGs it already loaded.
+      String src = "../plugins-dispatcher/svg?xmlSvgFragHash=" + svgHash + "&amp;sig=" + signature;
+      // The size is reserved before the image is loaded, so that the layout does not move,
+      // and the images outside the viewport are not loaded with the document.
+      StringBuilder img = new StringBuilder("<img class=\"svg-image\"");
+      appendDimensions(img, equationCache.getDimensions(elemId));
+      img.append(" loading=\"lazy\" decoding=\"async\"");
+      
+      int rasterThreshold = SvgPluginOptions.getRasterThreshold();
+      if (rasterThreshold != -1 && equationCache.getElementCount(elemId) > rasterThreshold) {
+        // Browsers stall when decoding huge vector images, so a PNG preview is sent instead.
+        String pngSrc = src + "&amp;format=png";
+        img.append(" src=\"" + pngSrc + "\" srcset=\"" + pngSrc + "&amp;dpr=2 2x\"");
+      } else {
+        // Decoded only for the images that are not rasterized.
+        String inlineXml = getInlineXml(equationCache, elemId);
+        if (inlineXml != null) {
+          // An extra request costs more than a tiny image.
+          img.append(" src=\"" + toDataUri(inlineXml) + "\"");
+        } else if (SvgPluginOptions.isBatchLoading()) {
+          // Loaded by plugin.js together with the other visible SVGs.
+          img.append(" data-svg-hash=\"" + svgHash + "\" data-svg-sig=\"" + signature 
+              + "\" data-src=\"" + src + "\"");
+        } else {
+          img.append(" src=\"" + src + "\"");
+        }
+      }
+      out.append(img).append("></img>");
     } catch (Exception e) {
       log.error(e, e);
+      SvgMetrics.renderErrors.increment();
       out.append("<span style=\"color: red\">Error rendering SVG image</span>");
     }
   }
 
+  /**
+   * Renders an image whose SVG is serialized only when the browser requests it, so that the
+   * images that are never scrolled into view are never frozen. The element is copied now, the
+   * request is served from the copy.
+   * 
+   * @param svgElement The SVG element.
+   * @param editingContext The editing context of the document.
+   * @param equationCache The cache of the document.
+   * @param out The output stream.
+   * 
+   * @throws IOException If the form control could not be redered.
+   * @throws BadLocationException If the element could not be copied.
+   */
+  private static void renderLazily(AuthorElement svgElement, EditingSessionContext editingContext,
+      PerDocumentSvgCache equationCache, Writer out) throws IOException, BadLocationException {
+    long elemId = equationCache.registerLazily(svgElement);
+    String docId = (String) editingContext.getAttribute(EditingSessionContextManager.AUTHOR_ACCESS_ID);
+    // The version changes when the element is edited, so that the browser does not use a stale image.
+    String src = "../plugins-dispatcher/svg?docId=" + docId + "&amp;elemId=" + elemId 
+        + "&amp;v=" + equationCache.getVersion(elemId);
+    StringBuilder img = new StringBuilder("<img class=\"svg-image\"");
+    appendDimensions(img, SvgDimensions.of(svgElement));
+    img.append(" loading=\"lazy\" decoding=\"async\" src=\"" + src + "\"");
+    out.append(img).append("></img>");
+  }
+
+  /**
+   * Returns the XML of a fragment small enough to be inlined in the image.
+   * 
+   * @param equationCache The cache of the document.
+   * @param elemId The id of the cache entry.
+   * 
+   * @return The XML, or <code>null</code> if the fragment is too large, was not frozen or is not
+   * in memory anymore.
+   */
+  static String getInlineXml(PerDocumentSvgCache equationCache, long elemId) {
+    int length = equationCache.getLength(elemId);
+    if (length < 0 || length >= SvgPluginOptions.getInlineThreshold()) {
+      return null;
+    }
+    SvgFragment fragment = equationCache.getFragment(elemId);
+    if (fragment == null || !fragment.retain()) {
+      // Evicted or freed since it was frozen.
+      return null;
+    }
+    try {
+      return fragment.getXml();
+    } finally {
+      fragment.release();
+    }
+  }
+
+  /**
+   * Appends the width and height attributes of an image.
+   * 
+   * @param img The start tag of the image.
+   * @param dimensions The intrinsic size of the SVG, or <code>null</code> if it is not known.
+   */
+  private static void appendDimensions(StringBuilder img, SvgDimensions dimensions) {
+    if (dimensions != null) {
+      img.append(" width=\"").append(dimensions.getWidth())
+        .append("\" height=\"").append(dimensions.getHeight()).append('"');
+    }
+  }
+
+  /**
+   * Builds a data URI with the given SVG, that can be used in a double quoted HTML attribute.
+   * 
+   * Only the characters that are not allowed in URIs or HTML attributes are percent-encoded,
+   * which is shorter than base64 for markup.
+   * 
+   * @param xml The SVG markup.
+   * 
+   * @return The data URI.
+   */
+  static String toDataUri(String xml) {
+    StringBuilder uri = new StringBuilder(DATA_URI_PREFIX.length() + xml.length() + xml.length() / 8);
+    uri.append(DATA_URI_PREFIX);
+    for (byte b : xml.getBytes(Charsets.UTF_8)) {
+      int c = b & 0xFF;
+      if (c < 0x20 || c >= 0x7F || DATA_URI_ESCAPED.indexOf(c) != -1) {
+        uri.append('%').append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+      } else {
+        uri.append((char) c);
+      }
+    }
+    return uri.toString();
+  }
+
   @Override
   public boolean isChangeTrackingAware() {
     return true;
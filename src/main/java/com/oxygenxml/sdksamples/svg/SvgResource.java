@@ -0,0 +1,69 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The representations of a frozen SVG fragment, as served by {@link SvgServlet}.
+ */
+public interface SvgResource {
+  /**
+   * @return The SHA-256 digest of the XML content, in hex.
+   */
+  String getDigest();
+
+  /**
+   * @return The strong entity tag of the uncompressed representation.
+   */
+  default String getETag() {
+    return "\"" + getDigest() + "\"";
+  }
+
+  /**
+   * @return The time when the fragment was frozen, in milliseconds.
+   */
+  long getFrozenAt();
+
+  /**
+   * @return The length in bytes of the UTF-8 encoded XML content.
+   */
+  int getLength();
+
+  /**
+   * @return The length in bytes of the gzip-compressed content, or -1 if there is no compressed variant.
+   */
+  int getGzippedLength();
+
+  /**
+   * Writes the UTF-8 encoded XML content.
+   *
+   * @param out The output stream.
+   *
+   * @throws IOException If the content could not be written.
+   */
+  void writeContent(OutputStream out) throws IOException;
+
+  /**
+   * Writes the gzip-compressed content.
+   *
+   * @param out The output stream.
+   *
+   * @throws IOException If the content could not be written.
+   */
+  void writeGzipped(OutputStream out) throws IOException;
+
+  /**
+   * Adds a holder of the resource, so that its bytes stay available while a response is written.
+   *
+   * @return <code>false</code> if the resource was freed and cannot be used anymore.
+   */
+  default boolean retain() {
+    return true;
+  }
+
+  /**
+   * Removes a holder of the resource.
+   */
+  default void release() {
+  }
+}
@@ -0,0 +1,386 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Disk tier for the fragments evicted from memory.
+ *
+ * Fragments are appended to memory-mapped segment files and served directly from the mapped
+ * regions. Only a small index from digest to location is kept on the heap. When the maximum
+ * size is reached, the oldest segment is dropped, and its file is deleted after the last request
+ * that reads from it completes.
+ */
+@Slf4j
+public class SvgSegmentStore {
+
+  /**
+   * The store, created on first use.
+   */
+  private static volatile SvgSegmentStore instance;
+
+  /**
+   * The directory of the segment files.
+   */
+  private final Path directory;
+
+  /**
+   * The size of a segment file.
+   */
+  private final int segmentSize;
+
+  /**
+   * The maximum number of segments.
+   */
+  private final long maxSegments;
+
+  /**
+   * The spilled fragments by digest.
+   */
+  private final Map<String, SpilledFragment> index = new ConcurrentHashMap<>();
+
+  /**
+   * The segments, oldest first. Guarded by this.
+   */
+  private final Deque<Segment> segments = new ArrayDeque<>();
+
+  /**
+   * The number of segments created so far. Guarded by this.
+   */
+  private int segmentCounter = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param directory The directory of the segment files.
+   * @param segmentSize The size of a segment file.
+   * @param maxBytes The maximum number of bytes spilled to disk.
+   */
+  SvgSegmentStore(Path directory, int segmentSize, long maxBytes) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.maxSegments = Math.max(1, maxBytes / segmentSize);
+  }
+
+  /**
+   * @return The store, or <code>null</code> if spilling to disk is disabled.
+   */
+  public static SvgSegmentStore getInstance() {
+    String spillDirectory = SvgPluginOptions.getSpillDirectory();
+    if (spillDirectory != null && instance == null) {
+      synchronized (SvgSegmentStore.class) {
+        if (instance == null) {
+          instance = new SvgSegmentStore(Paths.get(spillDirectory),
+              SvgPluginOptions.getSpillSegmentSize(), SvgPluginOptions.getSpillMaxBytes());
+        }
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Moves a fragment to disk.
+   *
+   * @param fragment The fragment.
+   *
+   * @return <code>true</code> if the fragment is available on disk.
+   */
+  public boolean spill(SvgFragment fragment) {
+    if (index.containsKey(fragment.getDigest())) {
+      return true;
+    }
+    if (!fragment.retain()) {
+      // Freed concurrently.
+      return false;
+    }
+    try {
+      return append(fragment);
+    } finally {
+      fragment.release();
+    }
+  }
+
+  /**
+   * Appends a fragment to the last segment.
+   *
+   * @param fragment The fragment.
+   *
+   * @return <code>true</code> if the fragment was appended.
+   */
+  private boolean append(SvgFragment fragment) {
+    ByteBuffer content = fragment.getContentBuffer();
+    ByteBuffer gzipped = fragment.getGzippedBuffer();
+    int length = content.remaining() + (gzipped != null ? gzipped.remaining() : 0);
+    if (length > segmentSize) {
+      return false;
+    }
+
+    synchronized (this) {
+      Segment segment = segments.peekLast();
+      try {
+        if (segment == null || segment.buffer.remaining() < length) {
+          segment = addSegment();
+        }
+      } catch (IOException e) {
+        log.error(e, e);
+        return false;
+      }
+      int offset = segment.buffer.position();
+      segment.buffer.put(content);
+      if (gzipped != null) {
+        segment.buffer.put(gzipped);
+      }
+      index.put(fragment.getDigest(), new SpilledFragment(fragment.getDigest(), fragment.getFrozenAt(),
+          segment, offset, fragment.getLength(), fragment.getGzippedLength()));
+    }
+    return true;
+  }
+
+  /**
+   * Returns the spilled fragment with the given digest.
+   *
+   * @param digest The digest.
+   *
+   * @return The fragment or <code>null</code>.
+   */
+  public SvgResource get(String digest) {
+    return index.get(digest);
+  }
+
+  /**
+   * @param digest The digest.
+   *
+   * @return <code>true</code> if the fragment with the given digest is on disk.
+   */
+  public boolean contains(String digest) {
+    return index.containsKey(digest);
+  }
+
+  /**
+   * Creates a new segment, dropping the oldest one if needed. Called with the lock held.
+   *
+   * @return The new segment.
+   *
+   * @throws IOException If the segment file could not be created.
+   */
+  private Segment addSegment() throws IOException {
+    if (segments.size() >= maxSegments) {
+      Segment oldest = segments.removeFirst();
+      index.values().removeIf(spilled -> spilled.segment == oldest);
+      // Deleted when the requests that are still reading from it complete.
+      oldest.release();
+    }
+
+    Files.createDirectories(directory);
+    Path path = directory.resolve("svg-segment-" + segmentCounter++ + ".bin");
+    path.toFile().deleteOnExit();
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(path,
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      // The mapping does not need the channel to stay open.
+      buffer = channel.map(MapMode.READ_WRITE, 0, segmentSize);
+    }
+    Segment segment = new Segment(path, buffer);
+    segments.addLast(segment);
+    return segment;
+  }
+
+  /**
+   * A memory-mapped segment file.
+   */
+  private static final class Segment {
+    /**
+     * The path of the file.
+     */
+    private final Path path;
+
+    /**
+     * The mapped file. Its position is where the next fragment is appended.
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * The number of requests reading from the segment, plus one while the store uses it.
+     */
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    /**
+     * Constructor.
+     *
+     * @param path The path of the file.
+     * @param buffer The mapped file.
+     */
+    Segment(Path path, MappedByteBuffer buffer) {
+      this.path = path;
+      this.buffer = buffer;
+    }
+
+    /**
+     * Registers a reader of the segment.
+     *
+     * @return <code>true</code> if the segment can be read, <code>false</code> if it was dropped
+     * and all its readers completed.
+     */
+    boolean retain() {
+      int count;
+      do {
+        count = references.get();
+        if (count == 0) {
+          return false;
+        }
+      } while (!references.compareAndSet(count, count + 1));
+      return true;
+    }
+
+    /**
+     * Unregisters a reader of the segment, or the store when the segment is dropped. The file is
+     * deleted when nobody uses it anymore. The mapping is released when the buffer is collected.
+     */
+    void release() {
+      if (references.decrementAndGet() == 0) {
+        try {
+          Files.deleteIfExists(path);
+        } catch (IOException e) {
+          // Some platforms do not delete mapped files, it is deleted on exit.
+          log.error(e, e);
+        }
+      }
+    }
+  }
+
+  /**
+   * A fragment stored in a segment.
+   */
+  private static final class SpilledFragment implements SvgResource {
+    /**
+     * The digest of the fragment.
+     */
+    private final String digest;
+
+    /**
+     * The time when the fragment was frozen.
+     */
+    private final long frozenAt;
+
+    /**
+     * The segment.
+     */
+    private final Segment segment;
+
+    /**
+     * The offset of the content in the segment, followed by the compressed content.
+     */
+    private final int offset;
+
+    /**
+     * The length of the content.
+     */
+    private final int length;
+
+    /**
+     * The length of the compressed content or -1.
+     */
+    private final int gzippedLength;
+
+    /**
+     * Constructor.
+     *
+     * @param digest The digest of the fragment.
+     * @param frozenAt The time when the fragment was frozen.
+     * @param segment The segment.
+     * @param offset The offset of the content in the segment.
+     * @param length The length of the content.
+     * @param gzippedLength The length of the compressed content or -1.
+     */
+    SpilledFragment(String digest, long frozenAt, Segment segment, int offset, int length, int gzippedLength) {
+      this.digest = digest;
+      this.frozenAt = frozenAt;
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+      this.gzippedLength = gzippedLength;
+    }
+
+    @Override
+    public String getDigest() {
+      return digest;
+    }
+
+    @Override
+    public long getFrozenAt() {
+      return frozenAt;
+    }
+
+    @Override
+    public int getLength() {
+      return length;
+    }
+
+    @Override
+    public int getGzippedLength() {
+      return gzippedLength;
+    }
+
+    @Override
+    public boolean retain() {
+      return segment.retain();
+    }
+
+    @Override
+    public void release() {
+      segment.release();
+    }
+
+    @Override
+    public void writeContent(OutputStream out) throws IOException {
+      write(offset, length, out);
+    }
+
+    @Override
+    public void writeGzipped(OutputStream out) throws IOException {
+      write(offset + length, gzippedLength, out);
+    }
+
+    /**
+     * Writes a region of the mapped segment.
+     *
+     * The region is copied from the mapping to the stream. FileChannel.transferTo is not used: the
+     * servlet output is a stream, not a channel of the socket, so the JDK would read the file into
+     * a temporary buffer before writing it, which is one more copy than reading the mapping.
+     *
+     * @param start The start offset.
+     * @param count The number of bytes.
+     * @param out The output stream.
+     *
+     * @throws IOException If the content could not be written.
+     */
+    private void write(int start, int count, OutputStream out) throws IOException {
+      if (!segment.retain()) {
+        throw new IOException("The segment of " + digest + " was dropped.");
+      }
+      try {
+        ByteBuffer region = segment.buffer.duplicate();
+        region.limit(start + count).position(start);
+        SvgFragment.write(region, out);
+      } finally {
+        segment.release();
+      }
+    }
+  }
+}
@@ -1,11 +1,26 @@
 package com.oxygenxml.sdksamples.svg;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.batik.transcoder.TranscoderException;
 
 import com.google.common.base.Charsets;
-import com.google.common.io.ByteStreams;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.net.HttpHeaders;
 import com.google.common.net.MediaType;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+
+import lombok.extern.slf4j.Slf4j;
 
 import ro.sync.ecss.extensions.api.AuthorAccess;
 import ro.sync.ecss.extensions.api.access.EditingSessionContext;
@@ -17,7 +32,53 @@ import ro.sync.ecss.extensions.api.webapp.plugin.servlet.http.HttpServletRespons
 /**
  * Svg servlet used to retrieve the svg file after conversion.
  */
+@Slf4j
 public class SvgServlet extends ServletPluginExtension {
+  /**
+   * Splitter for the comma separated lists of the If-None-Match and Accept-Encoding headers.
+   */
+  private static final Splitter LIST_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+  /**
+   * Splitter for the parameters of an Accept-Encoding entry.
+   */
+  private static final Splitter PARAMS_SPLITTER = Splitter.on(';').trimResults();
+
+  /**
+   * The gzip content coding.
+   */
+  private static final String GZIP = "gzip";
+
+  /**
+   * Suffix of the entity tag of the gzip-compressed representation.
+   */
+  private static final String GZIP_ETAG_SUFFIX = "-gzip";
+
+  /**
+   * Value of the format parameter that requests a PNG preview.
+   */
+  private static final String PNG_FORMAT = "png";
+
+  /**
+   * Parameter with the comma separated digests of the fragments requested in a batch.
+   */
+  private static final String BATCH_PARAMETER = "xmlSvgFragHashes";
+
+  /**
+   * Parameter of the request with which plugin.js reads the options it depends on.
+   */
+  private static final String CLIENT_OPTIONS_PARAMETER = "clientOptions";
+
+  /**
+   * The maximum number of fragments in a batch.
+   */
+  static final int MAX_BATCH_SIZE = 100;
+
+  /**
+   * The size of the buffers used to stream a batch.
+   */
+  private static final int BATCH_BUFFER_SIZE = 8192;
+
   /**
    * Returns the PNG image that corresponds to the mathml equation.
    * 
@@ -26,32 +87,368 @@ public class SvgServlet extends ServletPluginExtension {
    */
   @Override
   public void doGet(HttpServletRequest httpRequest, HttpServletResponse httpResponse) throws ServletException, IOException {
+    long start = System.nanoTime();
+    try {
+      serve(httpRequest, httpResponse);
+    } finally {
+      SvgMetrics.responseDuration.recordSince(start);
+    }
+  }
+
+  /**
+   * Sends the requested SVG.
+   * 
+   * @param httpRequest The HTTP request.
+   * @param httpResponse The HTTP response.
+   */
+  private void serve(HttpServletRequest httpRequest, HttpServletResponse httpResponse) throws IOException {
     if (isOpenedInBrowserTab(httpRequest)) {
+      SvgMetrics.countResponse(HttpServletResponse.SC_BAD_REQUEST);
       httpResponse.sendError(HttpServletResponse.SC_BAD_REQUEST, "Load SVG using an <img> tag.");
+    } else if (httpRequest.getParameter(CLIENT_OPTIONS_PARAMETER) != null) {
+      sendClientOptions(httpResponse);
+    } else if (httpRequest.getParameter(BATCH_PARAMETER) != null) {
+      sendBatch(httpRequest.getParameter(BATCH_PARAMETER), httpRequest, httpResponse);
     } else {
-      // The hash of the current wanted image.
-      String docId = httpRequest.getParameter("docId");
-      String elemId = httpRequest.getParameter("elemId");
+      SvgResource fragment = findFragment(httpRequest);
+      try {
+        if (fragment != null && PNG_FORMAT.equals(httpRequest.getParameter("format"))) {
+          sendPreview(fragment, httpRequest, httpResponse);
+        } else if (fragment != null) {
+          // mime type, cache, validators
+          httpResponse.setHeader("Cache-Control", "max-age=31536000");
+          httpResponse.setHeader("Content-Type", MediaType.SVG_UTF_8.toString());
+          httpResponse.setHeader("Vary", "Accept-Encoding");
+          httpResponse.setHeader("Content-Security-Policy", "sandbox");
+        
+          boolean gzipped = fragment.getGzippedLength() != -1
+              && acceptsGzip(httpRequest.getHeader(HttpHeaders.ACCEPT_ENCODING));
+          String etag;
+          if (gzipped) {
+            // Each representation needs its own strong entity tag.
+            etag = "\"" + fragment.getDigest() + GZIP_ETAG_SUFFIX + "\"";
+            httpResponse.setHeader(HttpHeaders.CONTENT_ENCODING, GZIP);
+          } else {
+            etag = fragment.getETag();
+          }
+          httpResponse.setHeader(HttpHeaders.ETAG, etag);
+          httpResponse.setDateHeader(HttpHeaders.LAST_MODIFIED, fragment.getFrozenAt());
+
+          if (isNotModified(httpRequest, etag, fragment.getFrozenAt())) {
+            SvgMetrics.countResponse(HttpServletResponse.SC_NOT_MODIFIED);
+            httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+          } else {
+            int length = gzipped ? fragment.getGzippedLength() : fragment.getLength();
+            SvgMetrics.countResponse(HttpServletResponse.SC_OK);
+            httpResponse.setContentLength(length);
+            if (!isHeadRequest(httpRequest)) {
+              SvgMetrics.responseBytes.add(length);
+              if (gzipped) {
+                fragment.writeGzipped(httpResponse.getOutputStream());
+              } else {
+                fragment.writeContent(httpResponse.getOutputStream());
+              }
+            }
+          }
+        } else {
+          SvgMetrics.countResponse(HttpServletResponse.SC_NOT_FOUND);
+          httpResponse.sendError(HttpServletResponse.SC_NOT_FOUND, "SVG file was not found.");
+        }
+      } finally {
+        if (fragment != null) {
+          // Retained when it was looked up.
+          fragment.release();
+        }
+      }
+    }
+  }
+
+  /**
+   * Sends the options that plugin.js depends on, as a JSON object.
+   * 
+   * @param httpResponse The HTTP response.
+   */
+  private static void sendClientOptions(HttpServletResponse httpResponse) throws IOException {
+    byte[] json = ("{\"batchLoading\":" + SvgPluginOptions.isBatchLoading() + "}").getBytes(Charsets.UTF_8);
+    SvgMetrics.countResponse(HttpServletResponse.SC_OK);
+    // The options change when the server restarts.
+    httpResponse.setHeader("Cache-Control", "no-cache");
+    httpResponse.setHeader("Content-Type", MediaType.JSON_UTF_8.toString());
+    httpResponse.setContentLength(json.length);
+    httpResponse.getOutputStream().write(json, 0, json.length);
+  }
+
+  /**
+   * Sends several fragments as a JSON object from digest to SVG content. The fragments that are
+   * not available are left out, and the client loads them one by one.
+   * 
+   * The JSON is streamed from the stored fragments, compressed if the client accepts it.
+   * 
+   * @param signedDigests The comma separated digests, each followed by a dot and its signature.
+   * @param httpRequest The HTTP request.
+   * @param httpResponse The HTTP response.
+   */
+  private static void sendBatch(String signedDigests, HttpServletRequest httpRequest,
+      HttpServletResponse httpResponse) throws IOException {
+    List<String> signedDigestList = LIST_SPLITTER.splitToList(signedDigests);
+    if (signedDigestList.size() > MAX_BATCH_SIZE) {
+      SvgMetrics.countResponse(HttpServletResponse.SC_BAD_REQUEST);
+      httpResponse.sendError(HttpServletResponse.SC_BAD_REQUEST, "Too many SVGs requested.");
+      return;
+    }
+    
+    Map<String, SvgResource> fragments = new LinkedHashMap<>();
+    try {
+      boolean complete = true;
+      for (String signedDigest : signedDigestList) {
+        int separator = signedDigest.indexOf('.');
+        String digest = separator != -1 ? signedDigest.substring(0, separator) : signedDigest;
+        String signature = separator != -1 ? signedDigest.substring(separator + 1) : null;
+        SvgResource fragment = SvgUrlSigner.verify(digest, signature)
+            ? SvgFragmentStore.getResource(digest) : null;
+        if (fragment == null) {
+          complete = false;
+        } else {
+          SvgResource duplicate = fragments.put(digest, fragment);
+          if (duplicate != null) {
+            duplicate.release();
+          }
+        }
+      }
+      
+      // The batch URL is determined by the digests, so a complete response never changes. The
+      // missing fragments may be available later, so an incomplete response is not stored.
+      httpResponse.setHeader("Cache-Control", complete ? "max-age=31536000" : "no-store");
+      httpResponse.setHeader("Content-Type", MediaType.JSON_UTF_8.toString());
+      httpResponse.setHeader("Vary", "Accept-Encoding");
+      boolean gzipped = acceptsGzip(httpRequest.getHeader(HttpHeaders.ACCEPT_ENCODING));
+      if (gzipped) {
+        httpResponse.setHeader(HttpHeaders.CONTENT_ENCODING, GZIP);
+      }
+      SvgMetrics.countResponse(HttpServletResponse.SC_OK);
       
-      AuthorAccess authorAccess = EditingSessionContextManager.getDocument(docId);
+      CountingOutputStream counter = new CountingOutputStream(httpResponse.getOutputStream());
+      GZIPOutputStream compressor = gzipped ? new GZIPOutputStream(counter, BATCH_BUFFER_SIZE) : null;
+      OutputStream body = new BufferedOutputStream(compressor != null ? compressor : counter, BATCH_BUFFER_SIZE);
+      body.write('{');
+      boolean first = true;
+      for (Map.Entry<String, SvgResource> fragment : fragments.entrySet()) {
+        if (!first) {
+          body.write(',');
+        }
+        first = false;
+        writeJsonString(body, fragment.getKey());
+        body.write(':');
+        JsonStringOutputStream content = new JsonStringOutputStream(body);
+        fragment.getValue().writeContent(content);
+        content.end();
+      }
+      body.write('}');
+      body.flush();
+      if (compressor != null) {
+        compressor.finish();
+      }
+      SvgMetrics.responseBytes.add(counter.getCount());
+    } finally {
+      for (SvgResource fragment : fragments.values()) {
+        // Retained when it was looked up.
+        fragment.release();
+      }
+    }
+  }
+
+  /**
+   * Writes a JSON string literal.
+   * 
+   * @param out The stream of the JSON document.
+   * @param value The value of the string.
+   * 
+   * @throws IOException If the string could not be written.
+   */
+  static void writeJsonString(OutputStream out, String value) throws IOException {
+    JsonStringOutputStream string = new JsonStringOutputStream(out);
+    string.write(value.getBytes(Charsets.UTF_8));
+    string.end();
+  }
+
+  /**
+   * Sends the PNG preview of a fragment.
+   * 
+   * @param fragment The fragment.
+   * @param httpRequest The HTTP request.
+   * @param httpResponse The HTTP response.
+   */
+  private static void sendPreview(SvgResource fragment, HttpServletRequest httpRequest, HttpServletResponse httpResponse)
+      throws IOException {
+    int width = parseIntParameter(httpRequest, "width", -1);
+    int dpr = parseIntParameter(httpRequest, "dpr", 1);
+    // The preview is determined by the content and the requested size, so it is validated
+    // without being rasterized.
+    String etag = "\"" + fragment.getDigest() + "-png-" + SvgRasterizer.normalizeWidth(width)
+        + "-" + SvgRasterizer.normalizeDpr(dpr) + "\"";
+    if (isNotModified(httpRequest, etag, fragment.getFrozenAt())) {
+      setPreviewHeaders(fragment, etag, httpResponse);
+      SvgMetrics.countResponse(HttpServletResponse.SC_NOT_MODIFIED);
+      httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+    
+    byte[] png;
+    try {
+      png = SvgRasterizer.rasterize(fragment, width, dpr);
+    } catch (TranscoderException e) {
+      log.error(e, e);
+      SvgMetrics.countResponse(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      httpResponse.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "SVG could not be rasterized.");
+      return;
+    }
+    
+    setPreviewHeaders(fragment, etag, httpResponse);
+    SvgMetrics.countResponse(HttpServletResponse.SC_OK);
+    httpResponse.setContentLength(png.length);
+    if (!isHeadRequest(httpRequest)) {
+      SvgMetrics.responseBytes.add(png.length);
+      httpResponse.getOutputStream().write(png);
+    }
+  }
+
+  /**
+   * Sets the headers of a PNG preview response.
+   * 
+   * @param fragment The fragment.
+   * @param etag The entity tag of the preview.
+   * @param httpResponse The HTTP response.
+   */
+  private static void setPreviewHeaders(SvgResource fragment, String etag, HttpServletResponse httpResponse) {
+    httpResponse.setHeader("Cache-Control", "max-age=31536000");
+    httpResponse.setHeader("Content-Type", MediaType.PNG.toString());
+    httpResponse.setHeader(HttpHeaders.ETAG, etag);
+    httpResponse.setDateHeader(HttpHeaders.LAST_MODIFIED, fragment.getFrozenAt());
+  }
+
+  /**
+   * @param httpRequest The HTTP request.
+   * @param name The name of the parameter.
+   * @param defaultValue The value used if the parameter is missing or invalid.
+   * 
+   * @return The value of the integer parameter.
+   */
+  private static int parseIntParameter(HttpServletRequest httpRequest, String name, int defaultValue) {
+    Integer value = Ints.tryParse(Strings.nullToEmpty(httpRequest.getParameter(name)));
+    return value != null ? value : defaultValue;
+  }
+
+  /**
+   * Looks up the requested fragment.
+   * 
+   * @param httpRequest The HTTP request.
+   * 
+   * @return The fragment or <code>null</code> if it is not available. The caller is a holder of
+   * the fragment and must release it.
+   */
+  private static SvgResource findFragment(HttpServletRequest httpRequest) {
+    // The hash of the current wanted image.
+    String digest = httpRequest.getParameter("xmlSvgFragHash");
+    String docId = httpRequest.getParameter("docId");
+    SvgResource fragment = null;
+    if (SvgUrlSigner.verify(digest, httpRequest.getParameter("sig"))) {
+      // Only the clients to which the SVG was rendered can load it.
+      fragment = SvgFragmentStore.getResource(digest);
+    }
+    if (fragment == null) {
+      // URLs of the elements frozen on first request, or rendered before the content-addressed store was introduced.
+      String elemId = httpRequest.getParameter("elemId");
+      Long id = elemId != null ? Longs.tryParse(elemId) : null;
+      AuthorAccess authorAccess = docId != null ? EditingSessionContextManager.getDocument(docId) : null;
+      PerDocumentSvgCache svgCache = null;
       if (authorAccess != null) {
         EditingSessionContext editingContext = authorAccess.getEditorAccess().getEditingContext();
-        PerDocumentSvgCache svgCache = (PerDocumentSvgCache) editingContext.getAttribute(EditingSessionContextManager.SVG_CACHE);
-        
-        String xml = svgCache.getXmlFragment(Long.valueOf(elemId));
-        
-        // mime type, cache, image content
-        httpResponse.setHeader("Cache-Control", "max-age=31536000");
-        httpResponse.setHeader("Content-Type", MediaType.SVG_UTF_8.toString());
-        httpResponse.setHeader("Vary", "Accept-Encoding");
-        httpResponse.setHeader("Content-Security-Policy", "sandbox");
-        ByteStreams.copy(new ByteArrayInputStream(xml.getBytes(Charsets.UTF_8)), httpResponse.getOutputStream());
-      } else {
-        httpResponse.sendError(HttpServletResponse.SC_NOT_FOUND, "SVG file was not found.");
+        svgCache = (PerDocumentSvgCache) editingContext.getAttribute(EditingSessionContextManager.SVG_CACHE);
+      }
+      if (svgCache != null && id != null) {
+        // Only copies of the elements are serialized here, the document may be edited concurrently.
+        SvgFragment frozen = svgCache.getFragment(id);
+        if (frozen != null && frozen.retain()) {
+          fragment = frozen;
+        } else {
+          // Evicted from memory, maybe spilled to disk, or freed since it was looked up.
+          fragment = SvgFragmentStore.getResource(svgCache.getDigest(id));
+        }
+      }
+    }
+    return fragment;
+  }
+
+  /**
+   * Checks whether the client accepts gzip-compressed responses.
+   *
+   * @param acceptEncoding The value of the Accept-Encoding header.
+   *
+   * @return <code>true</code> if gzip is acceptable.
+   */
+  static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    boolean accepted = false;
+    for (String coding : LIST_SPLITTER.split(acceptEncoding)) {
+      List<String> params = PARAMS_SPLITTER.splitToList(coding);
+      String name = params.get(0).toLowerCase(Locale.ROOT);
+      boolean zeroQuality = params.size() > 1 && params.get(1).matches("q=0(\\.0*)?");
+      if (GZIP.equals(name) || "x-gzip".equals(name)) {
+        // An explicit coding takes precedence over the wildcard.
+        return !zeroQuality;
+      } else if ("*".equals(name)) {
+        accepted = !zeroQuality;
       }
     }
+    return accepted;
   }
-  
+
+  /**
+   * Evaluates the conditional request headers against the representation.
+   *
+   * @param httpRequest The HTTP request.
+   * @param etag The entity tag of the representation.
+   * @param lastModified The modification time of the representation.
+   *
+   * @return <code>true</code> if the client copy is still valid and a 304 should be sent.
+   */
+  static boolean isNotModified(HttpServletRequest httpRequest, String etag, long lastModified) {
+    String ifNoneMatch = httpRequest.getHeader(HttpHeaders.IF_NONE_MATCH);
+    if (ifNoneMatch != null) {
+      // If-Modified-Since must be ignored when If-None-Match is present.
+      for (String candidate : LIST_SPLITTER.split(ifNoneMatch)) {
+        // If-None-Match uses the weak comparison function.
+        if (candidate.startsWith("W/")) {
+          candidate = candidate.substring(2);
+        }
+        if ("*".equals(candidate) || etag.equals(candidate)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    long ifModifiedSince;
+    try {
+      ifModifiedSince = httpRequest.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+    } catch (IllegalArgumentException e) {
+      // Malformed date, the header must be ignored.
+      ifModifiedSince = -1;
+    }
+    // HTTP dates have a one second resolution.
+    return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+  }
+
+  /**
+   * @param httpRequest The HTTP request.
+   * @return <code>true</code> if only the headers should be sent.
+   */
+  private static boolean isHeadRequest(HttpServletRequest httpRequest) {
+    return "HEAD".equalsIgnoreCase(httpRequest.getMethod());
+  }
+
   /**
    * @param httpRequest The HTTP request.
    * @return <code>true</code> if the URL is for sure opened in a browser tab.
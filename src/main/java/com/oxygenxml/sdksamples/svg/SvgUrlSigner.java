@@ -0,0 +1,115 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Hex;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Signs the content-addressed SVG URLs.
+ *
+ * A digest alone does not give access to a fragment: a client must present the signature issued
+ * when the SVG was rendered to it, so it cannot probe whether some known SVG is open. The
+ * signature depends only on the digest, so the same content has the same URL in all the sessions
+ * and documents, and browsers and proxies reuse their cached copy.
+ */
+public class SvgUrlSigner {
+
+  /**
+   * The MAC algorithm.
+   */
+  private static final String ALGORITHM = "HmacSHA256";
+
+  /**
+   * The number of bytes of the MAC kept in the signature.
+   */
+  private static final int SIGNATURE_BYTES = 16;
+
+  /**
+   * The signing key. Shared by the nodes of a cluster if configured.
+   */
+  private static final SecretKeySpec key = createKey();
+
+  /**
+   * The MAC instances, which are not thread-safe.
+   */
+  private static final ThreadLocal<Mac> macs = ThreadLocal.withInitial(() -> {
+    try {
+      Mac mac = Mac.getInstance(ALGORITHM);
+      mac.init(key);
+      return mac;
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  });
+
+  /**
+   * Private constructor.
+   */
+  private SvgUrlSigner() {
+  }
+
+  /**
+   * Signs the URL of a fragment.
+   *
+   * @param digest The digest of the fragment.
+   *
+   * @return The signature, in hex.
+   */
+  public static String sign(String digest) {
+    return Hex.encodeHexString(mac(digest));
+  }
+
+  /**
+   * Checks the signature of the URL of a fragment.
+   *
+   * @param digest The digest of the fragment, as received from the client.
+   * @param signature The signature, as received from the client.
+   *
+   * @return <code>true</code> if the signature was issued for this fragment.
+   */
+  public static boolean verify(String digest, String signature) {
+    if (digest == null || signature == null || signature.length() != 2 * SIGNATURE_BYTES) {
+      return false;
+    }
+    byte[] expected = mac(digest);
+    byte[] actual;
+    try {
+      actual = Hex.decodeHex(signature);
+    } catch (Exception e) {
+      return false;
+    }
+    return MessageDigest.isEqual(expected, actual);
+  }
+
+  /**
+   * @param digest The digest of the fragment.
+   *
+   * @return The truncated MAC of the digest.
+   */
+  private static byte[] mac(String digest) {
+    return Arrays.copyOf(macs.get().doFinal(digest.getBytes(Charsets.UTF_8)), SIGNATURE_BYTES);
+  }
+
+  /**
+   * @return The configured key, or a random one if the URLs are served only by this server.
+   */
+  private static SecretKeySpec createKey() {
+    String configuredKey = SvgPluginOptions.getUrlSigningKey();
+    byte[] keyBytes;
+    if (configuredKey != null) {
+      keyBytes = configuredKey.getBytes(Charsets.UTF_8);
+    } else {
+      keyBytes = new byte[32];
+      new SecureRandom().nextBytes(keyBytes);
+    }
+    return new SecretKeySpec(keyBytes, ALGORITHM);
+  }
+}
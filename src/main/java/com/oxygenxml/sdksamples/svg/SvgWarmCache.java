@@ -0,0 +1,381 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Persistent cache of the work derived from frozen fragments, that survives server restarts.
+ *
+ * The entries are files named after the digest of the fragment they were computed from: the
+ * compressed content and the PNG previews. The least recently used files are deleted when the
+ * maximum size is reached. The files already on disk are indexed in the background on first
+ * use, not when the server starts. Until then, the entries from a previous run are not found.
+ */
+@Slf4j
+public class SvgWarmCache {
+
+  /**
+   * The extension of the compressed content of a fragment.
+   */
+  static final String GZIP_EXTENSION = ".svg.gz";
+
+  /**
+   * The extension of a PNG preview.
+   */
+  static final String PNG_EXTENSION = ".png";
+
+  /**
+   * The accepted keys: a digest, optionally followed by the parameters of the derived content,
+   * and an extension.
+   */
+  private static final Pattern KEY = Pattern.compile("[0-9a-f]{64}[-0-9]*\\.[.a-z]+");
+
+  /**
+   * The extension of the files being written.
+   */
+  private static final String TEMP_EXTENSION = ".tmp";
+
+  /**
+   * The minimum age of the files being written that are deleted when the cache is indexed. The
+   * younger ones may be written by this run.
+   */
+  private static final long TEMP_FILE_MIN_AGE = TimeUnit.MINUTES.toMillis(1);
+
+  /**
+   * The cache, created on first use.
+   */
+  private static volatile SvgWarmCache instance;
+
+  /**
+   * The directory of the cache.
+   */
+  private final Path directory;
+
+  /**
+   * The maximum number of bytes on disk.
+   */
+  private final long maxBytes;
+
+  /**
+   * The sizes of the files by key, least recently used first. Guarded by this.
+   */
+  private LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+
+  /**
+   * The number of bytes on disk. Guarded by this.
+   */
+  private long totalBytes = 0;
+
+  /**
+   * <code>true</code> after the indexing of the files already on disk started.
+   */
+  private final AtomicBoolean indexingStarted = new AtomicBoolean();
+
+  /**
+   * Completed when the files already on disk were indexed.
+   */
+  private final CompletableFuture<Void> indexed = new CompletableFuture<>();
+
+  /**
+   * Constructor.
+   *
+   * @param directory The directory of the cache.
+   * @param maxBytes The maximum number of bytes on disk.
+   */
+  SvgWarmCache(Path directory, long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @return The cache, or <code>null</code> if the persistent cache is disabled.
+   */
+  public static SvgWarmCache getInstance() {
+    String warmCacheDirectory = SvgPluginOptions.getWarmCacheDirectory();
+    if (warmCacheDirectory != null && instance == null) {
+      synchronized (SvgWarmCache.class) {
+        if (instance == null) {
+          instance = new SvgWarmCache(Paths.get(warmCacheDirectory), SvgPluginOptions.getWarmCacheMaxBytes());
+        }
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Reads an entry.
+   *
+   * @param key The key of the entry.
+   *
+   * @return The content of the entry, or <code>null</code> if it is not in the cache.
+   */
+  public byte[] get(String key) {
+    if (!KEY.matcher(key).matches()) {
+      return null;
+    }
+    startIndexing();
+    synchronized (this) {
+      if (index.get(key) == null) {
+        SvgMetrics.warmCacheMisses.increment();
+        return null;
+      }
+    }
+    Path file = getFile(key);
+    try {
+      byte[] content = Files.readAllBytes(file);
+      // The access time survives restarts, to order the files when they are indexed again.
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+      SvgMetrics.warmCacheHits.increment();
+      return content;
+    } catch (NoSuchFileException e) {
+      // Deleted by someone else.
+      synchronized (this) {
+        Long size = index.remove(key);
+        if (size != null) {
+          totalBytes -= size;
+        }
+      }
+    } catch (IOException e) {
+      log.error(e, e);
+    }
+    SvgMetrics.warmCacheMisses.increment();
+    return null;
+  }
+
+  /**
+   * Adds an entry, deleting the least recently used ones if the cache is full.
+   *
+   * @param key The key of the entry.
+   * @param content The content of the entry. Its position is not changed.
+   */
+  public void put(String key, ByteBuffer content) {
+    long size = content.remaining();
+    if (!KEY.matcher(key).matches() || size > maxBytes) {
+      return;
+    }
+    startIndexing();
+    synchronized (this) {
+      if (index.containsKey(key)) {
+        return;
+      }
+    }
+    Path file = getFile(key);
+    try {
+      Files.createDirectories(file.getParent());
+      // Written under a temporary name, so that a crash does not leave a partial entry.
+      Path tempFile = Files.createTempFile(file.getParent(), key, TEMP_EXTENSION);
+      try {
+        try (OutputStream out = Files.newOutputStream(tempFile)) {
+          Channels.newChannel(out).write(content.duplicate());
+        }
+        SvgFiles.moveInPlace(tempFile, file);
+      } finally {
+        Files.deleteIfExists(tempFile);
+      }
+    } catch (IOException e) {
+      log.error(e, e);
+      return;
+    }
+    List<Path> evictedFiles;
+    synchronized (this) {
+      Long oldSize = index.put(key, size);
+      totalBytes += size - (oldSize != null ? oldSize : 0);
+      evictedFiles = evictOldEntries();
+    }
+    deleteFiles(evictedFiles);
+  }
+
+  /**
+   * @return The number of bytes on disk, known so far.
+   */
+  synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  /**
+   * Waits until the files already on disk are indexed.
+   *
+   * @throws InterruptedException If interrupted while waiting.
+   * @throws ExecutionException If the indexing failed.
+   */
+  void awaitIndexed() throws InterruptedException, ExecutionException {
+    startIndexing();
+    indexed.get();
+  }
+
+  /**
+   * Removes the least recently used entries from the index until the cache fits in its maximum
+   * size. Must be called with the lock held.
+   *
+   * @return The files of the removed entries, to be deleted after the lock is released.
+   */
+  private List<Path> evictOldEntries() {
+    List<Path> evictedFiles = new ArrayList<>();
+    Iterator<Map.Entry<String, Long>> entries = index.entrySet().iterator();
+    while (totalBytes > maxBytes && entries.hasNext()) {
+      Map.Entry<String, Long> entry = entries.next();
+      evictedFiles.add(getFile(entry.getKey()));
+      totalBytes -= entry.getValue();
+      entries.remove();
+    }
+    return evictedFiles;
+  }
+
+  /**
+   * Deletes the files of evicted entries. An entry added again meanwhile loses its file, and is
+   * removed from the index when it is not found.
+   *
+   * @param files The files.
+   */
+  private static void deleteFiles(List<Path> files) {
+    for (Path file : files) {
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException e) {
+        log.error(e, e);
+      }
+    }
+  }
+
+  /**
+   * Starts indexing the files left on disk by a previous run in the background, if not started.
+   */
+  private void startIndexing() {
+    if (indexingStarted.compareAndSet(false, true)) {
+      new ThreadFactoryBuilder()
+        .setNameFormat("svg-warm-cache-indexer-%d")
+        .setDaemon(true)
+        .setPriority(Thread.MIN_PRIORITY)
+        .build()
+        .newThread(this::indexFiles)
+        .start();
+    }
+  }
+
+  /**
+   * Indexes the files left on disk by a previous run, least recently used first. The lookups are
+   * not blocked while the directory is read.
+   */
+  private void indexFiles() {
+    try {
+      List<IndexedFile> indexedFiles = findFiles();
+      indexedFiles.sort(Comparator.comparingLong(indexedFile -> indexedFile.lastModified));
+      List<Path> evictedFiles;
+      synchronized (this) {
+        LinkedHashMap<String, Long> newIndex = new LinkedHashMap<>(16, 0.75f, true);
+        for (IndexedFile indexedFile : indexedFiles) {
+          newIndex.put(indexedFile.key, indexedFile.size);
+        }
+        // The entries used meanwhile are the most recently used ones.
+        newIndex.putAll(index);
+        index = newIndex;
+        totalBytes = 0;
+        for (long size : index.values()) {
+          totalBytes += size;
+        }
+        // The maximum size may have been lowered since the previous run.
+        evictedFiles = evictOldEntries();
+      }
+      deleteFiles(evictedFiles);
+    } finally {
+      indexed.complete(null);
+    }
+  }
+
+  /**
+   * @return The entries found on disk, in no particular order.
+   */
+  private List<IndexedFile> findFiles() {
+    List<IndexedFile> indexedFiles = new ArrayList<>();
+    if (!Files.isDirectory(directory)) {
+      return indexedFiles;
+    }
+    long now = System.currentTimeMillis();
+    List<Path> files;
+    try {
+      files = SvgFiles.list(directory);
+    } catch (IOException e) {
+      log.error(e, e);
+      return indexedFiles;
+    }
+    for (Path file : files) {
+      String key = file.getFileName().toString();
+      try {
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        if (KEY.matcher(key).matches()) {
+          indexedFiles.add(new IndexedFile(key, Files.size(file), lastModified));
+        } else if (key.endsWith(TEMP_EXTENSION) && now - lastModified > TEMP_FILE_MIN_AGE) {
+          // Left by a crash while it was written.
+          Files.deleteIfExists(file);
+        }
+      } catch (IOException e) {
+        log.error(e, e);
+      }
+    }
+    return indexedFiles;
+  }
+
+  /**
+   * @param key The key of an entry.
+   *
+   * @return The file of the entry.
+   */
+  private Path getFile(String key) {
+    return SvgFiles.resolve(directory, key);
+  }
+
+  /**
+   * A file found on disk when the cache is indexed.
+   */
+  private static final class IndexedFile {
+    /**
+     * The key of the entry.
+     */
+    private final String key;
+
+    /**
+     * The size of the file.
+     */
+    private final long size;
+
+    /**
+     * The time of the last access, in milliseconds.
+     */
+    private final long lastModified;
+
+    /**
+     * Constructor.
+     *
+     * @param key The key of the entry.
+     * @param size The size of the file.
+     * @param lastModified The time of the last access, in milliseconds.
+     */
+    IndexedFile(String key, long size, long lastModified) {
+      this.key = key;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+  }
+}
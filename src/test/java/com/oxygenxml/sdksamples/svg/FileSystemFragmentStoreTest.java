@@ -0,0 +1,186 @@
+package com.oxygenxml.sdksamples.svg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Strings;
+
+/**
+ * Tests for the shared fragment store kept in a directory.
+ */
+public class FileSystemFragmentStoreTest {
+
+  /**
+   * Folder shared by the simulated nodes.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * <p><b>Description:</b> Test that a fragment published by a node is served by another node,
+   * both plain and compressed.</p>
+   */
+  @Test
+  public void testPublishAndGet() throws Exception {
+    SharedFragmentStore publisher = new FileSystemFragmentStore(folder.getRoot().toPath());
+    SharedFragmentStore reader = new FileSystemFragmentStore(folder.getRoot().toPath());
+    SvgFragment small = new SvgFragment("<svg>small</svg>");
+    SvgFragment large = new SvgFragment("<svg>" + Strings.repeat("<g/>", 1000) + "</svg>");
+
+    assertNull(reader.get(small.getDigest()));
+    publisher.publish(small);
+    publisher.publish(large);
+    // Publishing again does not write it again.
+    publisher.publish(large);
+
+    SvgResource sharedSmall = reader.get(small.getDigest());
+    try {
+      assertEquals(small.getETag(), sharedSmall.getETag());
+      assertEquals(-1, sharedSmall.getGzippedLength());
+      assertArrayEquals(contentOf(small, false), contentOf(sharedSmall, false));
+    } finally {
+      sharedSmall.release();
+    }
+
+    SvgResource sharedLarge = reader.get(large.getDigest());
+    try {
+      assertEquals(large.getLength(), sharedLarge.getLength());
+      assertEquals(large.getGzippedLength(), sharedLarge.getGzippedLength());
+      assertArrayEquals(contentOf(large, false), contentOf(sharedLarge, false));
+      assertArrayEquals(contentOf(large, true), contentOf(sharedLarge, true));
+    } finally {
+      sharedLarge.release();
+    }
+  }
+
+  /**
+   * <p><b>Description:</b> Test that a fragment found in the store is still served when a sweep
+   * deletes its files before the response is written.</p>
+   */
+  @Test
+  public void testDeletedWhileServed() throws Exception {
+    SharedFragmentStore store = new FileSystemFragmentStore(folder.getRoot().toPath());
+    SvgFragment large = new SvgFragment("<svg>" + Strings.repeat("<g/>", 1000) + "</svg>");
+    store.publish(large);
+
+    SvgResource shared = store.get(large.getDigest());
+    try {
+      String digest = large.getDigest();
+      Path subdirectory = folder.getRoot().toPath().resolve(digest.substring(0, 2));
+      Files.delete(subdirectory.resolve(digest + ".svg"));
+      Files.delete(subdirectory.resolve(digest + ".svg.gz"));
+      assertNull(store.get(digest));
+
+      assertArrayEquals(contentOf(large, false), contentOf(shared, false));
+      assertArrayEquals(contentOf(large, true), contentOf(shared, true));
+    } finally {
+      shared.release();
+    }
+  }
+
+  /**
+   * <p><b>Description:</b> Test that digests received from clients cannot address other files.</p>
+   */
+  @Test
+  public void testInvalidDigest() throws Exception {
+    folder.newFile("secret.svg");
+    SharedFragmentStore store = new FileSystemFragmentStore(folder.newFolder("store").toPath());
+
+    assertNull(store.get(null));
+    assertNull(store.get("../secret"));
+    assertNull(store.get("../../secret"));
+    assertNull(store.get(Strings.repeat("A", 64)));
+  }
+
+  /**
+   * <p><b>Description:</b> Test that the fragments published least recently are deleted when the
+   * directory exceeds its maximum size, and that publishing a fragment again makes it recent.</p>
+   */
+  @Test
+  public void testEviction() throws Exception {
+    SvgFragment first = new SvgFragment("<svg>first</svg>");
+    SvgFragment second = new SvgFragment("<svg>second</svg>");
+    SvgFragment third = new SvgFragment("<svg>third</svg>");
+    long maxBytes = first.getLength() + second.getLength() + third.getLength() - 1;
+    FileSystemFragmentStore store = new FileSystemFragmentStore(folder.getRoot().toPath(), maxBytes);
+    Path tempFile = folder.getRoot().toPath().resolve("left-by-crash.tmp");
+    Files.write(tempFile, new byte[0]);
+    Files.setLastModifiedTime(tempFile, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)));
+
+    store.publish(first);
+    store.publish(second);
+    long now = System.currentTimeMillis();
+    setPublishedAt(second, now - 1000);
+    setPublishedAt(first, now - 2000);
+    store.publish(third);
+
+    assertFalse(isStored(store, first));
+    assertTrue(isStored(store, second));
+    assertTrue(isStored(store, third));
+    assertFalse(Files.exists(tempFile));
+
+    // The second fragment is still used on some node.
+    setPublishedAt(third, now - 1000);
+    setPublishedAt(second, now - 2000);
+    store.publish(second);
+    store.publish(first);
+
+    assertTrue(isStored(store, first));
+    assertTrue(isStored(store, second));
+    assertFalse(isStored(store, third));
+  }
+
+  /**
+   * @param store The store.
+   * @param fragment A fragment.
+   *
+   * @return <code>true</code> if the fragment is in the store.
+   */
+  private static boolean isStored(SharedFragmentStore store, SvgFragment fragment) throws Exception {
+    SvgResource resource = store.get(fragment.getDigest());
+    if (resource == null) {
+      return false;
+    }
+    resource.release();
+    return true;
+  }
+
+  /**
+   * @param fragment A published fragment.
+   * @param time The time when it was published, in milliseconds.
+   */
+  private void setPublishedAt(SvgFragment fragment, long time) throws Exception {
+    String digest = fragment.getDigest();
+    Path file = folder.getRoot().toPath().resolve(digest.substring(0, 2)).resolve(digest + ".svg");
+    Files.setLastModifiedTime(file, FileTime.fromMillis(time));
+  }
+
+  /**
+   * @param resource The resource.
+   * @param gzipped <code>true</code> to get the compressed content.
+   *
+   * @return The content of the resource.
+   */
+  private static byte[] contentOf(SvgResource resource, boolean gzipped) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    if (gzipped) {
+      resource.writeGzipped(out);
+    } else {
+      resource.writeContent(out);
+    }
+    return out.toByteArray();
+  }
+}
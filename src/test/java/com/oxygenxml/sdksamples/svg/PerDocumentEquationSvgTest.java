@@ -1,8 +1,15 @@
 package com.oxygenxml.sdksamples.svg;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -12,8 +19,10 @@ import javax.swing.text.Segment;
 import javax.swing.undo.UndoManager;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 
@@ -113,6 +122,308 @@ public class PerDocumentEquationSvgTest {
     assertEquals("<svg>2</svg>", cache.getXmlFragment(node2ID));
   }
 
+  /**
+   * <p><b>Description:</b> Test that identical fragments frozen by different documents are stored once.</p>
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testFragmentsSharedAcrossDocuments() throws Exception {
+    AuthorDocumentControllerMock controller1 = new AuthorDocumentControllerMock();
+    AuthorDocumentControllerMock controller2 = new AuthorDocumentControllerMock();
+    PerDocumentSvgCache cache1 = new PerDocumentSvgCache(controller1);
+    PerDocumentSvgCache cache2 = new PerDocumentSvgCache(controller2);
+
+    controller1.setSerializeReturn("<svg>shared</svg>");
+    controller2.setSerializeReturn("<svg>shared</svg>");
+    AuthorElement node1 = Mockito.mock(AuthorElement.class);
+    AuthorElement node2 = Mockito.mock(AuthorElement.class);
+    SvgFragment fragment1 = cache1.getFragment(cache1.freezeSvgFrag(node1));
+    SvgFragment fragment2 = cache2.getFragment(cache2.freezeSvgFrag(node2));
+
+    assertSame(fragment1, fragment2);
+    assertSame(fragment1, SvgFragmentStore.get(fragment1.getDigest()));
+  }
+
+  /**
+   * <p><b>Description:</b> Test that unchanged SVGs are not serialized again and that
+   * changes inside an SVG invalidate it.</p>
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testChangeDrivenInvalidation() throws Exception {
+    AuthorDocumentControllerMock controller = new AuthorDocumentControllerMock();
+    PerDocumentSvgCache cache = new PerDocumentSvgCache(controller);
+
+    AuthorElement svg = Mockito.mock(AuthorElement.class);
+    AuthorElement svgChild = Mockito.mock(AuthorElement.class);
+    Mockito.when(svgChild.getParent()).thenReturn(svg);
+    AuthorElement paragraph = Mockito.mock(AuthorElement.class);
+
+    controller.setSerializeReturn("<svg>1</svg>");
+    long id = cache.freezeSvgFrag(svg);
+
+    // A change outside the SVG does not invalidate it.
+    controller.setSerializeReturn("<svg>2</svg>");
+    controller.listener.authorNodeStructureChanged(paragraph);
+    assertEquals(id, cache.freezeSvgFrag(svg));
+    assertEquals("<svg>1</svg>", cache.getXmlFragment(id));
+
+    // A change inside the SVG does.
+    controller.listener.authorNodeStructureChanged(svgChild);
+    assertEquals(id, cache.freezeSvgFrag(svg));
+    assertEquals("<svg>2</svg>", cache.getXmlFragment(id));
+
+    controller.setSerializeReturn("<svg>3</svg>");
+    controller.listener.documentChanged(null, null);
+    cache.freezeSvgFrag(svg);
+    assertEquals("<svg>3</svg>", cache.getXmlFragment(id));
+  }
+
+  /**
+   * <p><b>Description:</b> Test that a lazily registered SVG is copied when rendered and that only
+   * the copy is serialized when its fragment is requested, and that its version changes when a
+   * frozen state becomes stale.</p>
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testLazyFreezing() throws Exception {
+    AuthorDocumentController controller = Mockito.mock(AuthorDocumentController.class);
+    AuthorDocumentFragment[] copies = new AuthorDocumentFragment[4];
+    for (int i = 0; i < copies.length; i++) {
+      copies[i] = Mockito.mock(AuthorDocumentFragment.class);
+      Mockito.when(controller.serializeFragmentToXML(copies[i])).thenReturn("<svg>" + i + "</svg>");
+    }
+    Mockito.when(controller.createDocumentFragment(Mockito.any(AuthorNode.class), Mockito.anyBoolean()))
+      .thenReturn(copies[0], copies[1], copies[2], copies[3]);
+    PerDocumentSvgCache cache = new PerDocumentSvgCache(controller);
+    ArgumentCaptor<AuthorListener> listener = ArgumentCaptor.forClass(AuthorListener.class);
+    Mockito.verify(controller).addAuthorListener(listener.capture());
+
+    AuthorElement svg = Mockito.mock(AuthorElement.class);
+    long id = cache.registerLazily(svg);
+    assertNull(cache.getDigest(id));
+    Mockito.verify(controller, Mockito.never()).serializeFragmentToXML(Mockito.any());
+    long version = cache.getVersion(id);
+
+    // The request thread does not copy the element.
+    assertEquals("<svg>0</svg>", cache.getFragment(id).getXml());
+    assertEquals(id, cache.registerLazily(svg));
+    assertEquals(version, cache.getVersion(id));
+    Mockito.verify(controller, Mockito.times(1)).createDocumentFragment(Mockito.any(AuthorNode.class), Mockito.anyBoolean());
+
+    // Until the changed element is rendered again, the last fragment is served.
+    listener.getValue().authorNodeStructureChanged(svg);
+    assertTrue(cache.getVersion(id) != version);
+    assertEquals("<svg>0</svg>", cache.getFragment(id).getXml());
+    cache.registerLazily(svg);
+    assertEquals("<svg>1</svg>", cache.getFragment(id).getXml());
+
+    // A copy of an element changed since is served, but the element stays dirty.
+    listener.getValue().authorNodeStructureChanged(svg);
+    cache.registerLazily(svg);
+    listener.getValue().authorNodeStructureChanged(svg);
+    assertEquals("<svg>2</svg>", cache.getFragment(id).getXml());
+    cache.registerLazily(svg);
+    assertEquals("<svg>3</svg>", cache.getFragment(id).getXml());
+  }
+
+  /**
+   * <p><b>Description:</b> Test that the copies waiting to be frozen are accounted in the memory
+   * budget, and that the SVGs rendered beyond the maximum number of copies are frozen right away.</p>
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testPendingCopiesLimit() throws Exception {
+    String maxCopiesProperty = "com.oxygenxml.sdksamples.svg.maxPendingCopies";
+    String copyWeightProperty = "com.oxygenxml.sdksamples.svg.pendingCopyWeight";
+    System.setProperty(maxCopiesProperty, "1");
+    System.setProperty(copyWeightProperty, "1000");
+    try {
+      AuthorDocumentController controller = Mockito.mock(AuthorDocumentController.class);
+      AuthorDocumentFragment copy1 = Mockito.mock(AuthorDocumentFragment.class);
+      AuthorDocumentFragment copy2 = Mockito.mock(AuthorDocumentFragment.class);
+      Mockito.when(controller.createDocumentFragment(Mockito.any(AuthorNode.class), Mockito.anyBoolean()))
+        .thenReturn(copy1, copy2);
+      Mockito.when(controller.serializeFragmentToXML(copy1)).thenReturn("<svg>1</svg>");
+      Mockito.when(controller.serializeFragmentToXML(copy2)).thenReturn("<svg>2</svg>");
+      PerDocumentSvgCache cache = new PerDocumentSvgCache(controller);
+      
+      long id1 = cache.registerLazily(Mockito.mock(AuthorElement.class));
+      assertNull(cache.getDigest(id1));
+      assertEquals(1000, cache.getHeldBytes());
+      
+      // The second copy would exceed the limit.
+      long id2 = cache.registerLazily(Mockito.mock(AuthorElement.class));
+      assertEquals("<svg>2</svg>", cache.getXmlFragment(id2));
+      assertEquals(1000 + 12, cache.getHeldBytes());
+      
+      // Once frozen, the copy is not accounted anymore.
+      assertEquals("<svg>1</svg>", cache.getXmlFragment(id1));
+      assertEquals(2 * 12, cache.getHeldBytes());
+    } finally {
+      System.clearProperty(maxCopiesProperty);
+      System.clearProperty(copyWeightProperty);
+    }
+  }
+
+  /**
+   * <p><b>Description:</b> Test that an SVG whose serialization failed is serialized again on the
+   * next request, instead of being considered up to date.</p>
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testSerializationFailure() throws Exception {
+    AuthorDocumentController controller = Mockito.mock(AuthorDocumentController.class);
+    Mockito.when(controller.createDocumentFragment(Mockito.any(AuthorNode.class), Mockito.anyBoolean()))
+      .thenReturn(Mockito.mock(AuthorDocumentFragment.class));
+    Mockito.when(controller.serializeFragmentToXML(Mockito.any()))
+      .thenReturn("<svg>1</svg>")
+      .thenThrow(new BadLocationException("Changed concurrently", 0))
+      .thenReturn("<svg>2</svg>");
+    PerDocumentSvgCache cache = new PerDocumentSvgCache(controller);
+    ArgumentCaptor<AuthorListener> listener = ArgumentCaptor.forClass(AuthorListener.class);
+    Mockito.verify(controller).addAuthorListener(listener.capture());
+
+    AuthorElement svg = Mockito.mock(AuthorElement.class);
+    long id = cache.freezeSvgFrag(svg);
+    listener.getValue().authorNodeStructureChanged(svg);
+    try {
+      cache.freezeSvgFrag(svg);
+      fail("The serialization should have failed.");
+    } catch (BadLocationException e) {
+      // Expected.
+    }
+    assertEquals(id, cache.freezeSvgFrag(svg));
+    assertEquals("<svg>2</svg>", cache.getXmlFragment(id));
+  }
+
+  /**
+   * <p><b>Description:</b> Test that the eviction of collected elements visits only the dead entries,
+   * so the pause per freeze does not grow with the number of SVGs in the document.</p>
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testIncrementalEviction() throws Exception {
+    AuthorDocumentControllerMock controller = new AuthorDocumentControllerMock();
+    PerDocumentSvgCache cache = new PerDocumentSvgCache(controller);
+
+    int liveCount = 20000;
+    int deadCount = 10;
+    List<AuthorElement> elements = new ArrayList<>();
+    for (int i = 0; i < liveCount + deadCount; i++) {
+      AuthorElement node = Mockito.mock(AuthorElement.class);
+      elements.add(node);
+      controller.setSerializeReturn("<svg>" + i + "</svg>");
+      cache.freezeSvgFrag(node);
+    }
+    assertEquals(0, cache.expungeStaleEntries());
+
+    // The dead elements are the first ones, Mockito keeps a reference to the last used mock.
+    elements.subList(0, deadCount).clear();
+    int removed = 0;
+    for (int i = 0; i < 100 && removed < deadCount; i++) {
+      System.gc();
+      Thread.sleep(10);
+      removed += cache.expungeStaleEntries();
+    }
+
+    assertEquals(deadCount, removed);
+    assertEquals(liveCount, cache.getSize());
+
+    AuthorElement newNode = Mockito.mock(AuthorElement.class);
+    controller.setSerializeReturn("<svg>new</svg>");
+    long id = cache.freezeSvgFrag(newNode);
+    assertEquals("<svg>new</svg>", cache.getXmlFragment(id));
+    assertEquals(liveCount + 1, cache.getSize());
+    // Keep the live elements reachable until the end of the test.
+    assertEquals(liveCount, elements.size());
+  }
+
+  /**
+   * <p><b>Description:</b> Test that the least recently used fragments are evicted when the
+   * memory budget is exceeded, that the evicted elements are still served from their
+   * compressed copy and that they are frozen again when rendered again.</p>
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testMemoryBudget() throws Exception {
+    // Compressible, so that only the compressed copy is kept when evicted.
+    String content1 = "<svg>" + Strings.repeat("1", 2000) + "</svg>";
+    String content2 = "<svg>" + Strings.repeat("2", 2000) + "</svg>";
+    String content3 = "<svg>" + Strings.repeat("3", 2000) + "</svg>";
+    SvgFragment fragment = new SvgFragment(content2);
+    long weight = fragment.getWeight();
+    int compressedLength = fragment.getGzippedLength();
+    fragment.release();
+    
+    String budgetProperty = "com.oxygenxml.sdksamples.svg.documentMemoryBudget";
+    // Only one of the three fragments needs to be evicted.
+    System.setProperty(budgetProperty, String.valueOf(3 * weight - 1));
+    try {
+      AuthorDocumentControllerMock controller = new AuthorDocumentControllerMock();
+      PerDocumentSvgCache cache = new PerDocumentSvgCache(controller);
+
+      AuthorElement node1 = Mockito.mock(AuthorElement.class);
+      AuthorElement node2 = Mockito.mock(AuthorElement.class);
+      AuthorElement node3 = Mockito.mock(AuthorElement.class);
+      controller.setSerializeReturn(content1);
+      long id1 = cache.freezeSvgFrag(node1);
+      controller.setSerializeReturn(content2);
+      long id2 = cache.freezeSvgFrag(node2);
+      // Access the first fragment so that the second one is evicted first.
+      assertEquals(content1, cache.getXmlFragment(id1));
+      controller.setSerializeReturn(content3);
+      long id3 = cache.freezeSvgFrag(node3);
+
+      assertEquals(2 * weight + compressedLength, cache.getHeldBytes());
+      controller.setSerializeReturn("<svg>changed</svg>");
+      assertEquals(content1, cache.getXmlFragment(id1));
+      assertEquals(content3, cache.getXmlFragment(id3));
+
+      // The evicted fragment is not serialized from the request thread, but it is still served.
+      assertNull(cache.getXmlFragment(id2));
+      assertEquals(content2.length(), cache.getLength(id2));
+      assertEquals(content2, readResource(cache.getDigest(id2)));
+      
+      // It is serialized again when the node is rendered again.
+      controller.setSerializeReturn(content2);
+      assertEquals(id2, cache.freezeSvgFrag(node2));
+      assertEquals(content2, cache.getXmlFragment(id2));
+    } finally {
+      System.clearProperty(budgetProperty);
+    }
+  }
+
+  /**
+   * Reads the content served for the given digest.
+   *
+   * @param digest The digest.
+   *
+   * @return The content or <code>null</code> if it is not found.
+   *
+   * @throws IOException
+   */
+  private static String readResource(String digest) throws IOException {
+    SvgResource resource = SvgFragmentStore.getResource(digest);
+    if (resource == null) {
+      return null;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      resource.writeContent(out);
+    } finally {
+      resource.release();
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
   
 /**
  * Mock Author Document Controller.
@@ -123,6 +434,11 @@ public class PerDocumentEquationSvgTest {
 
     private String serialized;
 
+    /**
+     * The registered author listener.
+     */
+    private AuthorListener listener;
+
     /**
      * Helper method to set what a serialization to XML will return.
      * 
@@ -333,6 +649,7 @@ public class PerDocumentEquationSvgTest {
 
     @Override
     public void addAuthorListener(AuthorListener listener) {
+      this.listener = listener;
     }
 
     @Override
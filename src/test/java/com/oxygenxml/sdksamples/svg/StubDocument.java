@@ -0,0 +1,177 @@
+package com.oxygenxml.sdksamples.svg;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.text.BadLocationException;
+
+import org.mockito.Mockito;
+
+import ro.sync.ecss.extensions.api.AuthorAccess;
+import ro.sync.ecss.extensions.api.AuthorDocumentController;
+import ro.sync.ecss.extensions.api.AuthorListener;
+import ro.sync.ecss.extensions.api.access.AuthorEditorAccess;
+import ro.sync.ecss.extensions.api.access.EditingSessionContext;
+import ro.sync.ecss.extensions.api.editor.AuthorInplaceContext;
+import ro.sync.ecss.extensions.api.node.AuthorDocumentFragment;
+import ro.sync.ecss.extensions.api.node.AuthorElement;
+import ro.sync.ecss.extensions.api.node.AuthorNode;
+
+/**
+ * A stubbed document with an SVG cache, used by the benchmarks and by the load tests.
+ *
+ * The stubs do not record their invocations, so they do not fill the heap during long runs.
+ */
+class StubDocument {
+
+  /**
+   * The cache of the document.
+   */
+  final PerDocumentSvgCache cache;
+
+  /**
+   * The listener registered by the cache, used to simulate edits.
+   */
+  final AuthorListener listener;
+
+  /**
+   * The author access of the document, with an editing context that stores its attributes.
+   */
+  final AuthorAccess authorAccess;
+
+  /**
+   * The ID of the document, used in the SVG URLs.
+   */
+  final String docId;
+
+  /**
+   * The XML returned when an SVG without its own content is serialized.
+   */
+  private volatile String content = "<svg/>";
+
+  /**
+   * The XML returned when an SVG is serialized, by element. Does not keep the elements alive.
+   */
+  private final Map<AuthorNode, String> contents = Collections.synchronizedMap(new WeakHashMap<>());
+
+  /**
+   * The element whose fragment was last created on the current thread.
+   */
+  private final ThreadLocal<AuthorNode> copiedNode = new ThreadLocal<>();
+
+  /**
+   * Constructor.
+   */
+  StubDocument() {
+    AuthorDocumentController controller = stub(AuthorDocumentController.class);
+    AuthorDocumentFragment fragment = stub(AuthorDocumentFragment.class);
+    try {
+      Mockito.when(controller.createDocumentFragment(Mockito.any(AuthorNode.class), Mockito.anyBoolean())).thenAnswer(invocation -> {
+        copiedNode.set(invocation.getArgument(0));
+        return fragment;
+      });
+      Mockito.when(controller.serializeFragmentToXML(fragment)).thenAnswer(invocation -> {
+        AuthorNode node = copiedNode.get();
+        copiedNode.remove();
+        String nodeContent = node != null ? contents.get(node) : null;
+        return nodeContent != null ? nodeContent : content;
+      });
+    } catch (BadLocationException e) {
+      throw new IllegalStateException(e);
+    }
+    AtomicReference<AuthorListener> registeredListener = new AtomicReference<>();
+    Mockito.doAnswer(invocation -> {
+      registeredListener.set(invocation.getArgument(0));
+      return null;
+    }).when(controller).addAuthorListener(Mockito.any());
+
+    authorAccess = stub(AuthorAccess.class);
+    AuthorEditorAccess editorAccess = stub(AuthorEditorAccess.class);
+    EditingSessionContext editingContext = stub(EditingSessionContext.class);
+    Map<String, Object> attributes = new ConcurrentHashMap<>();
+    Mockito.doAnswer(invocation -> attributes.put(invocation.getArgument(0), invocation.getArgument(1)))
+      .when(editingContext).setAttribute(Mockito.anyString(), Mockito.any());
+    Mockito.when(editingContext.getAttribute(Mockito.anyString())).thenAnswer(invocation -> attributes.get(invocation.getArgument(0)));
+    Mockito.when(editorAccess.getEditingContext()).thenReturn(editingContext);
+    Mockito.when(authorAccess.getEditorAccess()).thenReturn(editorAccess);
+    Mockito.when(authorAccess.getDocumentController()).thenReturn(controller);
+    // The cache is created as when the document is opened.
+    EditingSessionContextManager.ensureInitialized(authorAccess);
+    cache = (PerDocumentSvgCache) attributes.get(EditingSessionContextManager.SVG_CACHE);
+    listener = registeredListener.get();
+    docId = (String) attributes.get(EditingSessionContextManager.AUTHOR_ACCESS_ID);
+  }
+
+  /**
+   * Sets what the next serialization of an SVG without its own content returns.
+   *
+   * @param content The serialized XML.
+   */
+  void setContent(String content) {
+    this.content = content;
+  }
+
+  /**
+   * Sets what the serialization of the given SVG returns, as if it was edited.
+   *
+   * @param svg The SVG element.
+   * @param content The serialized XML.
+   */
+  void edit(AuthorElement svg, String content) {
+    contents.put(svg, content);
+    listener.authorNodeStructureChanged(svg);
+  }
+
+  /**
+   * @return A new SVG element of this document.
+   */
+  AuthorElement newSvgElement() {
+    return stub(AuthorElement.class);
+  }
+
+  /**
+   * @param svg The SVG element.
+   *
+   * @return The context in which the SVG form control is rendered.
+   */
+  AuthorInplaceContext newInplaceContext(AuthorElement svg) {
+    AuthorInplaceContext context = stub(AuthorInplaceContext.class);
+    Mockito.when(context.getElem()).thenReturn(svg);
+    Mockito.when(context.getAuthorAccess()).thenReturn(authorAccess);
+    return context;
+  }
+
+  /**
+   * Creates a stub that does not record its invocations.
+   *
+   * @param type The stubbed type.
+   *
+   * @return The stub.
+   */
+  static <T> T stub(Class<T> type) {
+    return Mockito.mock(type, Mockito.withSettings().stubOnly());
+  }
+
+  /**
+   * Generates an SVG drawing.
+   *
+   * @param elements The number of paths.
+   * @param seed Changes the coordinates, to generate different drawings of the same size.
+   *
+   * @return The serialized SVG.
+   */
+  static String generateSvg(int elements, int seed) {
+    StringBuilder svg = new StringBuilder("<svg xmlns=\"http://www.w3.org/2000/svg\" viewBox=\"0 0 1000 1000\">");
+    for (int i = 0; i < elements; i++) {
+      int x = (i * 37 + seed) % 1000;
+      int y = (i * 53 + seed) % 1000;
+      svg.append("<path fill=\"#").append(Integer.toHexString(0x100000 + i % 0xEFFFFF))
+        .append("\" d=\"M").append(x).append(".125 ").append(y).append(".375 L")
+        .append(y).append(".5 ").append(x).append(".625 Z\"/>");
+    }
+    return svg.append("</svg>").toString();
+  }
+}
@@ -0,0 +1,40 @@
+package com.oxygenxml.sdksamples.svg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+
+/**
+ * Tests for the chunked buffer of serialized content.
+ */
+public class SvgContentBufferTest {
+
+  /**
+   * <p><b>Description:</b> Test that content spanning several chunks is encoded, hashed and compared correctly.</p>
+   */
+  @Test
+  public void testLargeContent() {
+    // Multi-byte characters and elements that straddle the chunk boundaries.
+    String xml = "<svg>" + Strings.repeat("<text>\u00e9\u20ac</text>", 20000) + "</svg>";
+    byte[] expected = xml.getBytes(Charsets.UTF_8);
+
+    SvgContentBuffer buffer = SvgContentBuffer.encode(xml);
+    assertEquals(expected.length, buffer.size());
+    assertArrayEquals(expected, buffer.toByteArray());
+    assertEquals(DigestUtils.sha256Hex(expected), buffer.sha256Hex());
+    assertEquals(20001, buffer.countElements());
+
+    assertTrue(buffer.contentEquals(ByteBuffer.wrap(expected)));
+    expected[expected.length - 2] = 'x';
+    assertFalse(buffer.contentEquals(ByteBuffer.wrap(expected)));
+  }
+}
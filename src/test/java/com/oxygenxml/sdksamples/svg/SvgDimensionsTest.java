@@ -0,0 +1,40 @@
+package com.oxygenxml.sdksamples.svg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Tests for the intrinsic size of the SVG images.
+ */
+public class SvgDimensionsTest {
+
+  /**
+   * <p><b>Description:</b> Test that the size is computed from the width, height and viewBox attributes.</p>
+   */
+  @Test
+  public void testParse() {
+    assertSize(100, 50, SvgDimensions.parse("100", "50px", null));
+    assertSize(96, 48, SvgDimensions.parse("1in", "0.5in", "0 0 10 10"));
+    assertSize(200, 100, SvgDimensions.parse(null, null, "0 0 200 100"));
+    assertSize(300, 150, SvgDimensions.parse("300", null, "0,0,20,10"));
+    assertSize(40, 20, SvgDimensions.parse(null, "20", "0 0 20 10"));
+
+    assertNull(SvgDimensions.parse("100%", "50", null));
+    assertNull(SvgDimensions.parse("10em", "50", "0 0 10 10"));
+    assertNull(SvgDimensions.parse("100", null, null));
+    assertNull(SvgDimensions.parse(null, null, "0 0 0 10"));
+    assertNull(SvgDimensions.parse(null, null, null));
+  }
+
+  /**
+   * @param width The expected width.
+   * @param height The expected height.
+   * @param dimensions The actual dimensions.
+   */
+  private static void assertSize(int width, int height, SvgDimensions dimensions) {
+    assertEquals(width, dimensions.getWidth());
+    assertEquals(height, dimensions.getHeight());
+  }
+}
@@ -0,0 +1,363 @@
+package com.oxygenxml.sdksamples.svg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.net.HttpHeaders;
+
+import ro.sync.ecss.extensions.api.editor.AuthorInplaceContext;
+import ro.sync.ecss.extensions.api.node.AuthorElement;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.ServletOutputStream;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.http.HttpServletRequest;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.http.HttpServletResponse;
+
+/**
+ * Load test that simulates many documents edited and viewed at once.
+ *
+ * Disabled by default. Run with:
+ * <pre>mvn test -Dtest=SvgLoadTest -Dsvg.loadTest=true -Dsvg.loadTest.documents=50 -Dsvg.loadTest.seconds=60</pre>
+ */
+public class SvgLoadTest {
+
+  /**
+   * The prefix of the system properties that configure the test.
+   */
+  private static final String PREFIX = "svg.loadTest.";
+
+  /**
+   * The kinds of operations, by index.
+   */
+  private static final String[] OPERATIONS = {"edit", "render", "get"};
+
+  /**
+   * The index of the edit operation.
+   */
+  private static final int EDIT = 0;
+
+  /**
+   * The index of the render operation.
+   */
+  private static final int RENDER = 1;
+
+  /**
+   * The index of the servlet request operation.
+   */
+  private static final int GET = 2;
+
+  /**
+   * The maximum number of latencies sampled for each operation on each thread.
+   */
+  private static final int MAX_SAMPLES = 100000;
+
+  /**
+   * <p><b>Description:</b> Interleaves edits, form control renders and servlet requests on many
+   * documents from many threads, and reports the throughput, the latency percentiles and the
+   * heap usage.</p>
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testLoad() throws Exception {
+    Assume.assumeTrue("Enable with -Dsvg.loadTest=true", Boolean.getBoolean("svg.loadTest"));
+    int documentCount = Integer.getInteger(PREFIX + "documents", 20);
+    int svgCount = Integer.getInteger(PREFIX + "svgs", 50);
+    int threadCount = Integer.getInteger(PREFIX + "threads", Runtime.getRuntime().availableProcessors() * 2);
+    int seconds = Integer.getInteger(PREFIX + "seconds", 30);
+    int svgSize = Integer.getInteger(PREFIX + "svgSize", 50);
+
+    List<SimulatedDocument> documents = new ArrayList<>();
+    for (int i = 0; i < documentCount; i++) {
+      documents.add(new SimulatedDocument(svgCount, svgSize));
+    }
+
+    HeapSampler heapSampler = new HeapSampler();
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount + 1);
+    executor.submit(heapSampler);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    List<Future<SimulatedBrowser>> browsers = new ArrayList<>();
+    for (int i = 0; i < threadCount; i++) {
+      browsers.add(executor.submit(new SimulatedBrowser(documents, svgSize, deadline)));
+    }
+
+    List<SimulatedBrowser> results = new ArrayList<>();
+    for (Future<SimulatedBrowser> browser : browsers) {
+      results.add(browser.get());
+    }
+    executor.shutdownNow();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+
+    System.gc();
+    long retainedHeap = usedHeap();
+    report(results, seconds, heapSampler.maxUsedHeap.get(), retainedHeap);
+
+    long errors = results.stream().mapToLong(browser -> browser.errors).sum();
+    assertEquals("Operations failed", 0, errors);
+    for (int operation = 0; operation < OPERATIONS.length; operation++) {
+      int op = operation;
+      assertTrue(OPERATIONS[op] + " never ran", results.stream().mapToLong(browser -> browser.counts[op]).sum() > 0);
+    }
+  }
+
+  /**
+   * Prints the results of the test.
+   *
+   * @param browsers The simulated browsers.
+   * @param seconds The duration of the test.
+   * @param maxUsedHeap The maximum heap usage during the test.
+   * @param retainedHeap The heap usage after the test.
+   */
+  private static void report(List<SimulatedBrowser> browsers, int seconds, long maxUsedHeap, long retainedHeap) {
+    StringBuilder report = new StringBuilder("\nSVG load test: " + browsers.size() + " threads, " + seconds + " s\n");
+    report.append(String.format(Locale.ROOT, "%-8s %12s %10s %10s %10s %10s %10s%n",
+        "op", "ops/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us"));
+    for (int operation = 0; operation < OPERATIONS.length; operation++) {
+      long count = 0;
+      long max = 0;
+      List<long[]> samples = new ArrayList<>();
+      for (SimulatedBrowser browser : browsers) {
+        count += browser.counts[operation];
+        max = Math.max(max, browser.maxNanos[operation]);
+        samples.add(Arrays.copyOf(browser.samples[operation], (int) Math.min(browser.counts[operation], MAX_SAMPLES)));
+      }
+      long[] sorted = samples.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+      report.append(String.format(Locale.ROOT, "%-8s %12.0f %10d %10d %10d %10d %10d%n",
+          OPERATIONS[operation], count / (double) seconds,
+          percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99), percentile(sorted, 0.999),
+          TimeUnit.NANOSECONDS.toMicros(max)));
+    }
+    report.append(String.format(Locale.ROOT, "max used heap: %d MiB, retained heap after GC: %d MiB, frozen fragments: %d KiB%n",
+        maxUsedHeap >> 20, retainedHeap >> 20, SvgMemoryBudget.getTotalBytes() >> 10));
+    System.out.println(report);
+  }
+
+  /**
+   * @param sorted The sorted latencies in nanoseconds.
+   * @param quantile The quantile.
+   *
+   * @return The latency at the given quantile, in microseconds.
+   */
+  private static long percentile(long[] sorted, double quantile) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    return TimeUnit.NANOSECONDS.toMicros(sorted[(int) Math.min(sorted.length - 1, Math.floor(sorted.length * quantile))]);
+  }
+
+  /**
+   * @return The bytes used on the heap.
+   */
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   * A document with SVGs.
+   */
+  private static final class SimulatedDocument {
+    /**
+     * The stubbed document.
+     */
+    final StubDocument document = new StubDocument();
+
+    /**
+     * The SVG elements.
+     */
+    final AuthorElement[] svgs;
+
+    /**
+     * The contexts in which the SVGs are rendered.
+     */
+    final AuthorInplaceContext[] contexts;
+
+    /**
+     * Constructor.
+     *
+     * @param svgCount The number of SVGs.
+     * @param svgSize The number of paths in each SVG.
+     */
+    SimulatedDocument(int svgCount, int svgSize) {
+      svgs = new AuthorElement[svgCount];
+      contexts = new AuthorInplaceContext[svgCount];
+      for (int i = 0; i < svgCount; i++) {
+        svgs[i] = document.newSvgElement();
+        contexts[i] = document.newInplaceContext(svgs[i]);
+        document.edit(svgs[i], StubDocument.generateSvg(svgSize, ThreadLocalRandom.current().nextInt()));
+      }
+    }
+  }
+
+  /**
+   * A browser that edits, renders and loads the SVGs of random documents.
+   */
+  private static final class SimulatedBrowser implements Callable<SimulatedBrowser> {
+    /**
+     * The documents.
+     */
+    private final List<SimulatedDocument> documents;
+
+    /**
+     * The number of paths in each SVG.
+     */
+    private final int svgSize;
+
+    /**
+     * The value of {@link System#nanoTime()} when the test ends.
+     */
+    private final long deadline;
+
+    /**
+     * The renderer.
+     */
+    private final SvgRenderer renderer = new SvgRenderer();
+
+    /**
+     * The servlet.
+     */
+    private final SvgServlet servlet = new SvgServlet();
+
+    /**
+     * The digest requested by the next servlet request.
+     */
+    private volatile String requestedDigest;
+
+    /**
+     * The number of operations, by kind.
+     */
+    final long[] counts = new long[OPERATIONS.length];
+
+    /**
+     * The sampled latencies in nanoseconds, by kind.
+     */
+    final long[][] samples = new long[OPERATIONS.length][MAX_SAMPLES];
+
+    /**
+     * The maximum latency in nanoseconds, by kind.
+     */
+    final long[] maxNanos = new long[OPERATIONS.length];
+
+    /**
+     * The number of failed operations.
+     */
+    long errors;
+
+    /**
+     * Constructor.
+     *
+     * @param documents The documents.
+     * @param svgSize The number of paths in each SVG.
+     * @param deadline The value of {@link System#nanoTime()} when the test ends.
+     */
+    SimulatedBrowser(List<SimulatedDocument> documents, int svgSize, long deadline) {
+      this.documents = documents;
+      this.svgSize = svgSize;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public SimulatedBrowser call() throws Exception {
+      HttpServletRequest request = StubDocument.stub(HttpServletRequest.class);
+      Mockito.when(request.getMethod()).thenReturn("GET");
+      Mockito.when(request.getParameter("xmlSvgFragHash")).thenAnswer(invocation -> requestedDigest);
+      Mockito.when(request.getParameter("sig")).thenAnswer(invocation -> 
+        requestedDigest != null ? SvgUrlSigner.sign(requestedDigest) : null);
+      Mockito.when(request.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn("gzip, deflate, br");
+      Mockito.when(request.getDateHeader(Mockito.anyString())).thenReturn(-1L);
+      HttpServletResponse response = StubDocument.stub(HttpServletResponse.class);
+      ServletOutputStream out = StubDocument.stub(ServletOutputStream.class);
+      Mockito.when(response.getOutputStream()).thenReturn(out);
+
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      while (System.nanoTime() < deadline) {
+        SimulatedDocument document = documents.get(random.nextInt(documents.size()));
+        int svg = random.nextInt(document.svgs.length);
+        int dice = random.nextInt(100);
+        // Most of the time the SVGs are rendered and loaded, and sometimes edited.
+        int operation = dice < 5 ? EDIT : dice < 50 ? RENDER : GET;
+        long start = System.nanoTime();
+        try {
+          switch (operation) {
+            case EDIT:
+              document.document.edit(document.svgs[svg], StubDocument.generateSvg(svgSize, random.nextInt()));
+              break;
+            case RENDER:
+              StringWriter html = new StringWriter();
+              renderer.renderControl(document.contexts[svg], html);
+              if (!html.toString().startsWith("<img")) {
+                errors++;
+              }
+              break;
+            default:
+              requestedDigest = document.document.cache.getDigest(document.document.cache.register(document.svgs[svg]));
+              servlet.doGet(request, response);
+              break;
+          }
+        } catch (Exception e) {
+          e.printStackTrace();
+          errors++;
+        }
+        record(operation, System.nanoTime() - start, random);
+      }
+      return this;
+    }
+
+    /**
+     * Records the latency of an operation. The samples are kept with reservoir sampling.
+     *
+     * @param operation The kind of operation.
+     * @param nanos The latency.
+     * @param random The random generator.
+     */
+    private void record(int operation, long nanos, ThreadLocalRandom random) {
+      long count = counts[operation]++;
+      if (count < MAX_SAMPLES) {
+        samples[operation][(int) count] = nanos;
+      } else {
+        long slot = random.nextLong(count + 1);
+        if (slot < MAX_SAMPLES) {
+          samples[operation][(int) slot] = nanos;
+        }
+      }
+      maxNanos[operation] = Math.max(maxNanos[operation], nanos);
+    }
+  }
+
+  /**
+   * Samples the heap usage until interrupted.
+   */
+  private static final class HeapSampler implements Runnable {
+    /**
+     * The maximum heap usage seen.
+     */
+    final AtomicLong maxUsedHeap = new AtomicLong();
+
+    @Override
+    public void run() {
+      try {
+        while (!Thread.currentThread().isInterrupted()) {
+          maxUsedHeap.accumulateAndGet(usedHeap(), Math::max);
+          Thread.sleep(100);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
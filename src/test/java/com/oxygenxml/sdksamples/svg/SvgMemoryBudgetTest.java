@@ -0,0 +1,109 @@
+package com.oxygenxml.sdksamples.svg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+import ro.sync.ecss.extensions.api.node.AuthorElement;
+
+/**
+ * Tests for the global memory budget.
+ */
+public class SvgMemoryBudgetTest {
+
+  /**
+   * <p><b>Description:</b> Test that the global budget is enforced by evicting from the
+   * documents that were not used for the longest time first. The documents of other tests share
+   * the budget, so only the order of the evictions is checked.</p>
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testEvictColdestDocumentFirst() throws Exception {
+    String budgetProperty = "com.oxygenxml.sdksamples.svg.globalMemoryBudget";
+    System.setProperty(budgetProperty, "120");
+    try {
+      // 45 bytes each.
+      String content1 = "<svg>" + Strings.repeat("a", 34) + "</svg>";
+      String content2 = "<svg>" + Strings.repeat("b", 34) + "</svg>";
+      String content3 = "<svg>" + Strings.repeat("c", 34) + "</svg>";
+      StubDocument document1 = new StubDocument();
+      StubDocument document2 = new StubDocument();
+      StubDocument document3 = new StubDocument();
+      AuthorElement svg1 = document1.newSvgElement();
+      AuthorElement svg2 = document2.newSvgElement();
+      AuthorElement svg3 = document3.newSvgElement();
+      document1.edit(svg1, content1);
+      document2.edit(svg2, content2);
+      document3.edit(svg3, content3);
+
+      // The three documents do not fit in the budget, whatever the other documents hold.
+      long id1 = document1.cache.freezeSvgFrag(svg1);
+      document2.cache.freezeSvgFrag(svg2);
+      document3.cache.freezeSvgFrag(svg3);
+      assertEvictedInOrder(document1, document2, document3);
+
+      // Rendering the first document again makes the second one the coldest.
+      assertEquals(id1, document1.cache.freezeSvgFrag(svg1));
+      assertEquals(content1, document1.cache.getXmlFragment(id1));
+      assertEvictedInOrder(document2, document3, document1);
+
+      List<SvgMemoryBudget.DocumentSnapshot> usage = SvgMemoryBudget.getDocumentUsage();
+      assertTrue(usage.size() >= 3);
+      for (int i = 1; i < usage.size(); i++) {
+        assertTrue("Largest first", usage.get(i - 1).getBytes() >= usage.get(i).getBytes());
+      }
+    } finally {
+      System.clearProperty(budgetProperty);
+    }
+  }
+
+  /**
+   * <p><b>Description:</b> Test that a fragment shared by digest is counted once in the total and
+   * once in each document that holds it.</p>
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testSharedFragmentCountedOnce() throws Exception {
+    String content = "<svg>" + Strings.repeat("shared", 10) + "</svg>";
+    StubDocument document1 = new StubDocument();
+    StubDocument document2 = new StubDocument();
+    AuthorElement svg1 = document1.newSvgElement();
+    AuthorElement svg2 = document2.newSvgElement();
+    AuthorElement svg3 = document2.newSvgElement();
+    document1.edit(svg1, content);
+    document2.edit(svg2, content);
+    document2.edit(svg3, content);
+
+    document1.cache.freezeSvgFrag(svg1);
+    long totalBytes = SvgMemoryBudget.getTotalBytes();
+    document2.cache.freezeSvgFrag(svg2);
+    document2.cache.freezeSvgFrag(svg3);
+
+    // The closed documents of other tests may be released meanwhile.
+    assertTrue("Counted once in the total", SvgMemoryBudget.getTotalBytes() <= totalBytes);
+    assertEquals("Counted once in the document", content.length(), document2.cache.getHeldBytes());
+    assertEquals(content.length(), document1.cache.getHeldBytes());
+  }
+
+  /**
+   * Checks that the coldest document was evicted and that the hottest one was not.
+   *
+   * @param documents The documents, coldest first.
+   */
+  private static void assertEvictedInOrder(StubDocument... documents) {
+    // Only the compressed copy of the evicted fragment is kept.
+    assertTrue("Coldest evicted first", documents[0].cache.getHeldBytes() < 45);
+    for (int i = 1; i < documents.length; i++) {
+      assertTrue("Colder evicted first",
+          documents[i - 1].cache.getHeldBytes() <= documents[i].cache.getHeldBytes());
+    }
+    assertEquals("Hottest kept", 45, documents[documents.length - 1].cache.getHeldBytes());
+  }
+}
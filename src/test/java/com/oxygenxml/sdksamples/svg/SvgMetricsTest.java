@@ -0,0 +1,48 @@
+package com.oxygenxml.sdksamples.svg;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for the metrics of the plugin.
+ */
+public class SvgMetricsTest {
+
+  /**
+   * <p><b>Description:</b> Test that the histogram buckets are cumulative, as required by the
+   * Prometheus text format.</p>
+   */
+  @Test
+  public void testHistogram() {
+    SvgMetrics.Histogram histogram = new SvgMetrics.Histogram();
+    histogram.recordSince(System.nanoTime());
+    histogram.recordSince(System.nanoTime() - 20_000_000_000L);
+
+    StringBuilder out = new StringBuilder();
+    histogram.write(out, "test_seconds", "Test.");
+    String text = out.toString();
+    assertTrue(text, text.contains("# TYPE test_seconds histogram\n"));
+    assertTrue(text, text.contains("test_seconds_bucket{le=\"0.0005\"} 1\n"));
+    assertTrue(text, text.contains("test_seconds_bucket{le=\"10\"} 1\n"));
+    assertTrue(text, text.contains("test_seconds_bucket{le=\"+Inf\"} 2\n"));
+    assertTrue(text, text.contains("test_seconds_count 2\n"));
+  }
+
+  /**
+   * <p><b>Description:</b> Test that the servlet responses are reported by status.</p>
+   */
+  @Test
+  public void testResponsesByStatus() {
+    SvgMetrics.countResponse(304);
+    SvgMetrics.countResponse(404);
+    
+    StringBuilder out = new StringBuilder();
+    SvgMetrics.write(out);
+    String text = out.toString();
+    assertTrue(text, text.contains("svg_servlet_response_total{status=\"304\"} "));
+    assertTrue(text, text.contains("svg_servlet_response_total{status=\"404\"} "));
+    assertTrue(text, text.contains("svg_documents_open "));
+    assertTrue(text, text.contains("# TYPE svg_document_memory_bytes gauge\n"));
+  }
+}
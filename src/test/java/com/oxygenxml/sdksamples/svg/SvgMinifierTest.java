@@ -0,0 +1,80 @@
+package com.oxygenxml.sdksamples.svg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Tests for the minification of the frozen fragments.
+ */
+public class SvgMinifierTest {
+
+  /**
+   * <p><b>Description:</b> Test that comments, indentation and editor metadata are removed.</p>
+   */
+  @Test
+  public void testMinify() {
+    String svg = "<?xml version=\"1.0\"?>\n"
+        + "<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\"\n"
+        + "    xmlns:inkscape=\"http://www.inkscape.org/namespaces/inkscape\"\n"
+        + "    xmlns:sodipodi=\"http://sodipodi.sourceforge.net/DTD/sodipodi-0.dtd\" inkscape:version=\"1.0\">\n"
+        + "  <!-- Layer 1 -->\n"
+        + "  <sodipodi:namedview id=\"base\"><inkscape:grid/></sodipodi:namedview>\n"
+        + "  <metadata><rdf xmlns=\"urn:rdf\"/></metadata>\n"
+        + "  <g inkscape:label=\"Layer 1\">\n"
+        + "    <path d=\"M 10.123456 20.5 L 30.0001,-0.0004\"/>\n"
+        + "    <text> a <tspan> b </tspan></text>\n"
+        + "    <use xlink:href=\"#p\"></use>\n"
+        + "  </g>\n"
+        + "</svg>\n";
+
+    assertEquals("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">"
+        + "<g><path d=\"M 10.123 20.5 L 30,0\"/>"
+        + "<text> a <tspan> b </tspan></text>"
+        + "<use xlink:href=\"#p\"/></g></svg>",
+        new String(SvgMinifier.minify(svg, 3).toByteArray(), Charsets.UTF_8));
+  }
+
+  /**
+   * <p><b>Description:</b> Test that the whitespace in the content of other vocabularies, like
+   * the XHTML of a foreignObject, is kept.</p>
+   */
+  @Test
+  public void testForeignObjectWhitespace() {
+    String svg = "<svg xmlns=\"http://www.w3.org/2000/svg\">\n"
+        + "  <foreignObject width=\"100\" height=\"20\">\n"
+        + "    <div xmlns=\"http://www.w3.org/1999/xhtml\"><b>a</b> <i>b</i></div>\n"
+        + "  </foreignObject>\n"
+        + "</svg>";
+
+    assertEquals("<svg xmlns=\"http://www.w3.org/2000/svg\"><foreignObject width=\"100\" height=\"20\">"
+        + "<div xmlns=\"http://www.w3.org/1999/xhtml\"><b>a</b> <i>b</i></div></foreignObject></svg>",
+        new String(SvgMinifier.minify(svg, 3).toByteArray(), Charsets.UTF_8));
+  }
+
+  /**
+   * <p><b>Description:</b> Test that the references to entities that are not declared are not lost.</p>
+   */
+  @Test
+  public void testEntityReference() {
+    String svg = "<svg xmlns=\"http://www.w3.org/2000/svg\">\n  <text>a&nbsp;b &amp; c</text>\n</svg>";
+
+    // Depending on the StAX implementation, the fragment is minified or left as it is.
+    String minified = new String(SvgMinifier.minify(svg, 3).toByteArray(), Charsets.UTF_8);
+    assertTrue(minified, minified.contains("<text>a&nbsp;b &amp; c</text>"));
+  }
+
+  /**
+   * <p><b>Description:</b> Test that rounding keeps the numbers apart and leaves arcs alone.</p>
+   */
+  @Test
+  public void testRoundNumbers() {
+    assertEquals("M2 1L3-1", SvgMinifier.roundNumbers("M1.5.5L3.25-1.0", 0));
+    assertEquals("M1.5 0 1.3-.4", SvgMinifier.roundNumbers("M1.5.04 1.25-0.4", 1));
+    assertEquals("M1.3.5", SvgMinifier.roundNumbers("M1.25.5", 1));
+    assertEquals("M1.25 1a1 1 0 01.5 2", SvgMinifier.roundNumbers("M1.25 1a1 1 0 01.5 2", 1));
+  }
+}
@@ -0,0 +1,109 @@
+package com.oxygenxml.sdksamples.svg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+
+/**
+ * Tests for the off-heap storage of the fragments.
+ */
+public class SvgOffHeapSlabsTest {
+
+  /**
+   * <p><b>Description:</b> Test that freed blocks are reused for the same size class.</p>
+   */
+  @Test
+  public void testBlocksReused() {
+    SvgOffHeapSlabs slabs = new SvgOffHeapSlabs(4096);
+    ByteBuffer first = slabs.allocate(300);
+    ByteBuffer second = slabs.allocate(500);
+    assertTrue(first.isDirect());
+    assertEquals(512, first.capacity());
+    assertEquals(1024, slabs.getUsedBytes());
+    assertEquals(4096, slabs.getReservedBytes());
+
+    slabs.free(first);
+    assertSame(first, slabs.allocate(400));
+    slabs.free(second);
+
+    ByteBuffer large = slabs.allocate(10000);
+    assertEquals(10000, large.capacity());
+    assertEquals(4096 + 10000, slabs.getReservedBytes());
+    slabs.free(large);
+    assertEquals(4096, slabs.getReservedBytes());
+  }
+
+  /**
+   * <p><b>Description:</b> Test that off-heap fragments are served from their block and freed
+   * when the last holder releases them.</p>
+   */
+  @Test
+  public void testOffHeapFragment() throws Exception {
+    String offHeapProperty = "com.oxygenxml.sdksamples.svg.offHeapStorage";
+    System.setProperty(offHeapProperty, "true");
+    try {
+      String xml = "<svg>" + Strings.repeat("<g/>", 1000) + "</svg>";
+      SvgFragment fragment = SvgFragmentStore.intern(SvgContentBuffer.encode(xml));
+      assertTrue(fragment.getContentBuffer().isDirect());
+      assertTrue(fragment.getGzippedLength() > 0);
+      assertEquals(xml, fragment.getXml());
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      fragment.writeContent(out);
+      assertEquals(xml, new String(out.toByteArray(), Charsets.UTF_8));
+
+      // A second holder of the same content.
+      assertSame(fragment, SvgFragmentStore.intern(SvgContentBuffer.encode(xml)));
+      fragment.release();
+      assertFalse(fragment.isFreed());
+      fragment.release();
+      assertTrue(fragment.isFreed());
+
+      SvgFragment frozenAgain = SvgFragmentStore.intern(SvgContentBuffer.encode(xml));
+      assertNotSame(fragment, frozenAgain);
+      assertEquals(xml, frozenAgain.getXml());
+      frozenAgain.release();
+    } finally {
+      System.clearProperty(offHeapProperty);
+    }
+  }
+
+  /**
+   * <p><b>Description:</b> Test that a fragment looked up for a request is not freed before the
+   * response is written, even if its document releases it.</p>
+   */
+  @Test
+  public void testFragmentRetainedByLookup() throws Exception {
+    String offHeapProperty = "com.oxygenxml.sdksamples.svg.offHeapStorage";
+    System.setProperty(offHeapProperty, "true");
+    try {
+      String xml = "<svg>" + Strings.repeat("<rect/>", 100) + "</svg>";
+      SvgFragment fragment = SvgFragmentStore.intern(SvgContentBuffer.encode(xml));
+      SvgResource resource = SvgFragmentStore.getResource(fragment.getDigest());
+      assertSame(fragment, resource);
+
+      // The document releases the fragment while the response is written.
+      fragment.release();
+      assertFalse(fragment.isFreed());
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      resource.writeContent(out);
+      assertEquals(xml, new String(out.toByteArray(), Charsets.UTF_8));
+
+      resource.release();
+      assertTrue(fragment.isFreed());
+      assertNull(SvgFragmentStore.getResource(fragment.getDigest()));
+    } finally {
+      System.clearProperty(offHeapProperty);
+    }
+  }
+}
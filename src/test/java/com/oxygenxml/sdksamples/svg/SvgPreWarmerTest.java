@@ -0,0 +1,79 @@
+package com.oxygenxml.sdksamples.svg;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import ro.sync.ecss.extensions.api.AuthorDocumentController;
+import ro.sync.ecss.extensions.api.node.AuthorDocumentFragment;
+import ro.sync.ecss.extensions.api.node.AuthorElement;
+import ro.sync.ecss.extensions.api.node.AuthorNode;
+
+/**
+ * Tests for the background freezing of the SVGs.
+ */
+public class SvgPreWarmerTest {
+
+  /**
+   * <p><b>Description:</b> Test that all the SVGs of a document are frozen in the background, from
+   * copies taken on the calling thread.</p>
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testPreWarm() throws Exception {
+    AuthorDocumentController controller = Mockito.mock(AuthorDocumentController.class);
+    AuthorElement first = Mockito.mock(AuthorElement.class);
+    AuthorElement second = Mockito.mock(AuthorElement.class);
+    Mockito.when(controller.findNodesByXPath(Mockito.anyString(), Mockito.anyBoolean(), Mockito.anyBoolean(), Mockito.anyBoolean()))
+      .thenReturn(new AuthorNode[] {first, second});
+    AuthorDocumentFragment fragment = Mockito.mock(AuthorDocumentFragment.class);
+    Mockito.when(controller.createDocumentFragment(Mockito.any(AuthorNode.class), Mockito.anyBoolean())).thenReturn(fragment);
+    Mockito.when(controller.serializeFragmentToXML(fragment)).thenReturn("<svg/>");
+    PerDocumentSvgCache cache = new PerDocumentSvgCache(controller);
+    
+    CompletableFuture<Void> done = SvgPreWarmer.preWarm(controller, cache);
+    // The document is not read by the background threads.
+    Mockito.verify(controller, Mockito.times(2)).createDocumentFragment(Mockito.any(AuthorNode.class), Mockito.anyBoolean());
+    done.get(10, TimeUnit.SECONDS);
+    Mockito.verify(controller, Mockito.times(2)).createDocumentFragment(Mockito.any(AuthorNode.class), Mockito.anyBoolean());
+    
+    long firstId = cache.register(first);
+    long secondId = cache.register(second);
+    assertNotNull(cache.getDigest(firstId));
+    assertNotNull(cache.getDigest(secondId));
+    assertNull(cache.getDigest(cache.register(Mockito.mock(AuthorElement.class))));
+  }
+
+  /**
+   * <p><b>Description:</b> Test that a document can queue only its share of SVGs, the rest are
+   * frozen when rendered.</p>
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testQueuedPerDocument() throws Exception {
+    AuthorDocumentController controller = Mockito.mock(AuthorDocumentController.class);
+    AuthorElement[] elements = new AuthorElement[SvgPreWarmer.MAX_QUEUED_PER_DOCUMENT + 1];
+    for (int i = 0; i < elements.length; i++) {
+      elements[i] = Mockito.mock(AuthorElement.class);
+    }
+    Mockito.when(controller.findNodesByXPath(Mockito.anyString(), Mockito.anyBoolean(), Mockito.anyBoolean(), Mockito.anyBoolean()))
+      .thenReturn(elements);
+    AuthorDocumentFragment fragment = Mockito.mock(AuthorDocumentFragment.class);
+    Mockito.when(controller.createDocumentFragment(Mockito.any(AuthorNode.class), Mockito.anyBoolean())).thenReturn(fragment);
+    Mockito.when(controller.serializeFragmentToXML(fragment)).thenReturn("<svg/>");
+    PerDocumentSvgCache cache = new PerDocumentSvgCache(controller);
+
+    SvgPreWarmer.preWarm(controller, cache).get(10, TimeUnit.SECONDS);
+
+    assertNotNull(cache.getDigest(cache.register(elements[0])));
+    assertNotNull(cache.getDigest(cache.register(elements[elements.length - 2])));
+    assertNull(cache.getDigest(cache.register(elements[elements.length - 1])));
+  }
+}
@@ -0,0 +1,99 @@
+package com.oxygenxml.sdksamples.svg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Base64;
+
+import javax.imageio.ImageIO;
+
+import org.apache.batik.transcoder.TranscoderException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the PNG previews of the SVG fragments.
+ */
+public class SvgRasterizerTest {
+
+  /**
+   * Folder for the local files referenced by the fragments.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * <p><b>Description:</b> Test that the preview has the requested size and is cached.</p>
+   */
+  @Test
+  public void testRasterize() throws Exception {
+    SvgFragment fragment = new SvgFragment(
+        "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"100\" height=\"50\"><rect width=\"100\" height=\"50\"/></svg>");
+
+    BufferedImage intrinsic = ImageIO.read(new ByteArrayInputStream(SvgRasterizer.rasterize(fragment, -1, 1)));
+    assertEquals(100, intrinsic.getWidth());
+    assertEquals(50, intrinsic.getHeight());
+
+    byte[] png = SvgRasterizer.rasterize(fragment, 200, 2);
+    BufferedImage scaled = ImageIO.read(new ByteArrayInputStream(png));
+    // The width is rounded up to a multiple of 64 and multiplied by the device pixel ratio.
+    assertEquals(512, scaled.getWidth());
+    assertEquals(256, scaled.getHeight());
+    assertSame(png, SvgRasterizer.rasterize(fragment, 250, 2));
+  }
+
+  /**
+   * <p><b>Description:</b> Test that a fragment cannot load a local file while it is rasterized,
+   * but that embedded images are still rendered.</p>
+   */
+  @Test
+  public void testExternalResourcesRefused() throws Exception {
+    BufferedImage red = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = red.createGraphics();
+    graphics.setColor(Color.RED);
+    graphics.fillRect(0, 0, 10, 10);
+    graphics.dispose();
+    ByteArrayOutputStream redPng = new ByteArrayOutputStream();
+    ImageIO.write(red, "png", redPng);
+    File file = folder.newFile("red.png");
+    Files.write(file.toPath(), redPng.toByteArray());
+
+    String template = "<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\""
+        + " width=\"10\" height=\"10\"><image width=\"10\" height=\"10\" xlink:href=\"%s\"/></svg>";
+    String embedded = "data:image/png;base64," + Base64.getEncoder().encodeToString(redPng.toByteArray());
+    BufferedImage preview = ImageIO.read(new ByteArrayInputStream(
+        SvgRasterizer.rasterize(new SvgFragment(String.format(template, embedded)), -1, 1)));
+    assertEquals(Color.RED.getRGB(), preview.getRGB(5, 5));
+
+    try {
+      byte[] png = SvgRasterizer.rasterize(new SvgFragment(String.format(template, file.toURI())), -1, 1);
+      BufferedImage local = ImageIO.read(new ByteArrayInputStream(png));
+      assertNotEquals(Color.RED.getRGB(), local.getRGB(5, 5));
+    } catch (TranscoderException e) {
+      // Refused.
+    }
+  }
+
+  /**
+   * <p><b>Description:</b> Test that the number of pixels of a preview is capped, not only its width.</p>
+   */
+  @Test
+  public void testPixelsCapped() throws Exception {
+    SvgFragment fragment = new SvgFragment(
+        "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"100\" height=\"400000\"><rect width=\"100\" height=\"400000\"/></svg>");
+
+    BufferedImage preview = ImageIO.read(new ByteArrayInputStream(SvgRasterizer.rasterize(fragment, -1, 4)));
+    assertTrue((long) preview.getWidth() * preview.getHeight() <= SvgRasterizer.MAX_PIXELS);
+    assertTrue(preview.getHeight() > 1000 * preview.getWidth() * 0.99);
+  }
+}
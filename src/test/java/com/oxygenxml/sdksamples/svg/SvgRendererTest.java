@@ -0,0 +1,46 @@
+package com.oxygenxml.sdksamples.svg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+import ro.sync.ecss.extensions.api.node.AuthorElement;
+
+/**
+ * Tests for the SVG renderer.
+ */
+public class SvgRendererTest {
+
+  /**
+   * <p><b>Description:</b> Test that embedded SVGs are encoded safely for a double quoted attribute.</p>
+   */
+  @Test
+  public void testDataUri() {
+    assertEquals("data:image/svg+xml,%3Csvg fill=%22%23fff%22 id=%27a%26b%27%3E%C3%A9%0A%3C/svg%3E",
+        SvgRenderer.toDataUri("<svg fill=\"#fff\" id='a&b'>\u00e9\n</svg>"));
+  }
+
+  /**
+   * <p><b>Description:</b> Test that only small fragments that are in memory are inlined, and
+   * that an element that was not frozen is not inlined.</p>
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testInlineXml() throws Exception {
+    StubDocument document = new StubDocument();
+    AuthorElement small = document.newSvgElement();
+    document.edit(small, "<svg>small</svg>");
+    long smallId = document.cache.freezeSvgFrag(small);
+    AuthorElement large = document.newSvgElement();
+    document.edit(large, "<svg>" + Strings.repeat("<g/>", SvgPluginOptions.getInlineThreshold()) + "</svg>");
+    long largeId = document.cache.freezeSvgFrag(large);
+
+    assertEquals("<svg>small</svg>", SvgRenderer.getInlineXml(document.cache, smallId));
+    assertNull(SvgRenderer.getInlineXml(document.cache, largeId));
+    assertNull(SvgRenderer.getInlineXml(document.cache, largeId + 1000));
+  }
+}
@@ -0,0 +1,120 @@
+package com.oxygenxml.sdksamples.svg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Strings;
+
+/**
+ * Tests for the store of the fragments spilled to disk.
+ */
+public class SvgSegmentStoreTest {
+
+  /**
+   * Folder for the segment files.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * <p><b>Description:</b> Test that spilled fragments are served from disk, both plain and compressed.</p>
+   */
+  @Test
+  public void testSpillAndServe() throws Exception {
+    SvgSegmentStore store = new SvgSegmentStore(folder.getRoot().toPath(), 64 * 1024, 1024 * 1024);
+    SvgFragment small = new SvgFragment("<svg>small</svg>");
+    SvgFragment large = new SvgFragment("<svg>" + Strings.repeat("<g/>", 1000) + "</svg>");
+
+    assertTrue(store.spill(small));
+    assertTrue(store.spill(large));
+
+    SvgResource spilledSmall = store.get(small.getDigest());
+    assertEquals(small.getETag(), spilledSmall.getETag());
+    assertEquals(-1, spilledSmall.getGzippedLength());
+    assertArrayEquals(contentOf(small, false), contentOf(spilledSmall, false));
+
+    SvgResource spilledLarge = store.get(large.getDigest());
+    assertEquals(large.getGzippedLength(), spilledLarge.getGzippedLength());
+    assertArrayEquals(contentOf(large, false), contentOf(spilledLarge, false));
+    assertArrayEquals(contentOf(large, true), contentOf(spilledLarge, true));
+  }
+
+  /**
+   * <p><b>Description:</b> Test that the oldest segment is dropped when the store is full.</p>
+   */
+  @Test
+  public void testOldestSegmentDropped() throws Exception {
+    SvgSegmentStore store = new SvgSegmentStore(folder.getRoot().toPath(), 100, 200);
+    SvgFragment first = new SvgFragment("<svg>" + Strings.repeat("1", 80) + "</svg>");
+    SvgFragment second = new SvgFragment("<svg>" + Strings.repeat("2", 80) + "</svg>");
+    SvgFragment third = new SvgFragment("<svg>" + Strings.repeat("3", 80) + "</svg>");
+    SvgFragment tooLarge = new SvgFragment("<svg>" + Strings.repeat("4", 200) + "</svg>");
+
+    assertTrue(store.spill(first));
+    assertTrue(store.spill(second));
+    assertTrue(store.spill(third));
+    assertFalse(store.spill(tooLarge));
+
+    assertNull(store.get(first.getDigest()));
+    assertArrayEquals(contentOf(second, false), contentOf(store.get(second.getDigest()), false));
+    assertArrayEquals(contentOf(third, false), contentOf(store.get(third.getDigest()), false));
+    assertEquals(2, folder.getRoot().list().length);
+  }
+
+  /**
+   * <p><b>Description:</b> Test that the file of a dropped segment is deleted only after the
+   * requests that read from it complete.</p>
+   */
+  @Test
+  public void testDroppedSegmentDeletedAfterReaders() throws Exception {
+    SvgSegmentStore store = new SvgSegmentStore(folder.getRoot().toPath(), 100, 100);
+    SvgFragment first = new SvgFragment("<svg>" + Strings.repeat("1", 80) + "</svg>");
+    SvgFragment second = new SvgFragment("<svg>" + Strings.repeat("2", 80) + "</svg>");
+    assertTrue(store.spill(first));
+    SvgResource spilled = store.get(first.getDigest());
+    File segmentFile = folder.getRoot().listFiles()[0];
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream() {
+      @Override
+      public synchronized void write(byte[] b, int off, int len) {
+        // The segment is dropped while the response is written.
+        assertTrue(store.spill(second));
+        assertTrue(segmentFile.exists());
+        super.write(b, off, len);
+      }
+    };
+    spilled.writeContent(out);
+
+    assertArrayEquals(contentOf(first, false), out.toByteArray());
+    assertFalse(segmentFile.exists());
+    assertNull(store.get(first.getDigest()));
+  }
+
+  /**
+   * Reads the content of a fragment.
+   *
+   * @param resource The fragment.
+   * @param gzipped <code>true</code> to read the compressed content.
+   *
+   * @return The content.
+   */
+  private static byte[] contentOf(SvgResource resource, boolean gzipped) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    if (gzipped) {
+      resource.writeGzipped(out);
+    } else {
+      resource.writeContent(out);
+    }
+    return out.toByteArray();
+  }
+}
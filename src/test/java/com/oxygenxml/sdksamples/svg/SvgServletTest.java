@@ -0,0 +1,241 @@
+package com.oxygenxml.sdksamples.svg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.google.common.net.HttpHeaders;
+
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.ServletOutputStream;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.http.HttpServletRequest;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.http.HttpServletResponse;
+
+/**
+ * Tests for the SVG servlet.
+ */
+public class SvgServletTest {
+
+  /**
+   * <p><b>Description:</b> Test that the entity tag of the fragment is validated.</p>
+   */
+  @Test
+  public void testIfNoneMatch() {
+    SvgFragment fragment = new SvgFragment("<svg>1</svg>");
+    String etag = fragment.getETag();
+    long frozenAt = fragment.getFrozenAt();
+
+    assertTrue(SvgServlet.isNotModified(requestWithHeader(HttpHeaders.IF_NONE_MATCH, etag), etag, frozenAt));
+    assertTrue(SvgServlet.isNotModified(requestWithHeader(HttpHeaders.IF_NONE_MATCH, "\"other\", W/" + etag), etag, frozenAt));
+    assertTrue(SvgServlet.isNotModified(requestWithHeader(HttpHeaders.IF_NONE_MATCH, "*"), etag, frozenAt));
+    assertFalse(SvgServlet.isNotModified(requestWithHeader(HttpHeaders.IF_NONE_MATCH, "\"other\""), etag, frozenAt));
+    assertFalse(SvgServlet.isNotModified(requestWithHeader(HttpHeaders.IF_NONE_MATCH, null), etag, frozenAt));
+  }
+
+  /**
+   * <p><b>Description:</b> Test that If-Modified-Since is honored only when there is no If-None-Match.</p>
+   */
+  @Test
+  public void testIfModifiedSince() {
+    SvgFragment fragment = new SvgFragment("<svg>1</svg>");
+    String etag = fragment.getETag();
+    long frozenAt = fragment.getFrozenAt();
+
+    HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+    Mockito.when(request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE)).thenReturn(frozenAt + 1000);
+    assertTrue(SvgServlet.isNotModified(request, etag, frozenAt));
+
+    Mockito.when(request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE)).thenReturn(frozenAt - 1000);
+    assertFalse(SvgServlet.isNotModified(request, etag, frozenAt));
+
+    Mockito.when(request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE)).thenReturn(frozenAt + 1000);
+    Mockito.when(request.getHeader(HttpHeaders.IF_NONE_MATCH)).thenReturn("\"other\"");
+    assertFalse(SvgServlet.isNotModified(request, etag, frozenAt));
+  }
+
+  /**
+   * <p><b>Description:</b> Test the Accept-Encoding negotiation.</p>
+   */
+  @Test
+  public void testAcceptsGzip() {
+    assertTrue(SvgServlet.acceptsGzip("gzip, deflate, br"));
+    assertTrue(SvgServlet.acceptsGzip("br;q=1.0, GZIP;q=0.5"));
+    assertTrue(SvgServlet.acceptsGzip("*"));
+    assertFalse(SvgServlet.acceptsGzip("gzip;q=0, *"));
+    assertFalse(SvgServlet.acceptsGzip("identity"));
+    assertFalse(SvgServlet.acceptsGzip(null));
+  }
+
+  /**
+   * <p><b>Description:</b> Test that the SVGs of a batch are escaped as JSON strings.</p>
+   */
+  @Test
+  public void testJsonString() throws Exception {
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    SvgServlet.writeJsonString(json, "<svg a=\"1\">\\\n\u2028</svg>");
+    assertEquals("\"<svg a=\\\"1\\\">\\\\\\u000a\\u2028</svg>\"", new String(json.toByteArray(), Charsets.UTF_8));
+
+    // The other characters encoded with the same first bytes are not escaped.
+    json.reset();
+    SvgServlet.writeJsonString(json, "\u2014\u20ac\u2029\u00e9\u2028");
+    assertEquals("\"\u2014\u20ac\\u2029\u00e9\\u2028\"", new String(json.toByteArray(), Charsets.UTF_8));
+  }
+
+  /**
+   * <p><b>Description:</b> Test that plugin.js is told whether the images are loaded in
+   * batches.</p>
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testClientOptions() throws Exception {
+    String batchProperty = "com.oxygenxml.sdksamples.svg.batchLoading";
+    System.setProperty(batchProperty, "true");
+    try {
+      HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+      Mockito.when(request.getParameter("clientOptions")).thenReturn("true");
+      HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+      ByteArrayOutputStream body = mockOutputStream(response);
+      new SvgServlet().doGet(request, response);
+      Mockito.verify(response).setHeader("Cache-Control", "no-cache");
+      assertEquals("{\"batchLoading\":true}", new String(body.toByteArray(), Charsets.UTF_8));
+    } finally {
+      System.clearProperty(batchProperty);
+    }
+  }
+
+  /**
+   * <p><b>Description:</b> Test that a batch is streamed compressed when the client accepts it,
+   * and that it is not cached when some of the fragments are missing.</p>
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testBatch() throws Exception {
+    SvgFragment fragment = SvgFragmentStore.intern(SvgContentBuffer.encode("<svg a=\"1\">batch</svg>"));
+    try {
+      String signedDigest = fragment.getDigest() + "." + SvgUrlSigner.sign(fragment.getDigest());
+      String missingDigest = Strings.repeat("0", 64);
+      String signedMissingDigest = missingDigest + "." + SvgUrlSigner.sign(missingDigest);
+      String expectedJson = "{\"" + fragment.getDigest() + "\":\"<svg a=\\\"1\\\">batch</svg>\"}";
+
+      HttpServletRequest request = requestWithHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+      Mockito.when(request.getParameter("xmlSvgFragHashes")).thenReturn(signedDigest);
+      HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+      ByteArrayOutputStream body = mockOutputStream(response);
+      new SvgServlet().doGet(request, response);
+      Mockito.verify(response).setHeader("Cache-Control", "max-age=31536000");
+      Mockito.verify(response).setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+      assertEquals(expectedJson, new String(
+          ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(body.toByteArray()))), Charsets.UTF_8));
+
+      Mockito.when(request.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn(null);
+      Mockito.when(request.getParameter("xmlSvgFragHashes")).thenReturn(signedDigest + "," + signedMissingDigest);
+      response = Mockito.mock(HttpServletResponse.class);
+      body = mockOutputStream(response);
+      new SvgServlet().doGet(request, response);
+      Mockito.verify(response).setHeader("Cache-Control", "no-store");
+      Mockito.verify(response, Mockito.never()).setHeader(Mockito.eq(HttpHeaders.CONTENT_ENCODING), Mockito.anyString());
+      assertEquals(expectedJson, new String(body.toByteArray(), Charsets.UTF_8));
+    } finally {
+      fragment.release();
+    }
+  }
+
+  /**
+   * <p><b>Description:</b> Test that a fragment is served only with the signature issued for its digest.</p>
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testSignedUrl() throws Exception {
+    SvgFragment fragment = SvgFragmentStore.intern(SvgContentBuffer.encode("<svg>signed</svg>"));
+    try {
+      HttpServletRequest request = requestWithHeader(HttpHeaders.ACCEPT, "image/svg+xml");
+      Mockito.when(request.getParameter("xmlSvgFragHash")).thenReturn(fragment.getDigest());
+
+      HttpServletResponse unsignedResponse = Mockito.mock(HttpServletResponse.class);
+      new SvgServlet().doGet(request, unsignedResponse);
+      Mockito.verify(unsignedResponse).sendError(Mockito.eq(HttpServletResponse.SC_NOT_FOUND), Mockito.anyString());
+
+      Mockito.when(request.getParameter("sig")).thenReturn(SvgUrlSigner.sign(fragment.getDigest()));
+      HttpServletResponse signedResponse = Mockito.mock(HttpServletResponse.class);
+      ServletOutputStream out = Mockito.mock(ServletOutputStream.class);
+      Mockito.when(signedResponse.getOutputStream()).thenReturn(out);
+      new SvgServlet().doGet(request, signedResponse);
+      Mockito.verify(signedResponse, Mockito.never()).sendError(Mockito.anyInt(), Mockito.anyString());
+      Mockito.verify(signedResponse).setContentLength(fragment.getLength());
+      Mockito.verify(out).write(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.eq(fragment.getLength()));
+    } finally {
+      fragment.release();
+    }
+  }
+
+  /**
+   * <p><b>Description:</b> Test that a conditional request for a PNG preview is answered before
+   * the fragment is rasterized.</p>
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testPreviewNotModifiedWithoutRasterizing() throws Exception {
+    // Not an SVG, it would fail to rasterize.
+    SvgFragment fragment = SvgFragmentStore.intern(SvgContentBuffer.encode("<html>not modified</html>"));
+    try {
+      String etag = "\"" + fragment.getDigest() + "-png-128-2\"";
+      HttpServletRequest request = requestWithHeader(HttpHeaders.ACCEPT, "image/png");
+      Mockito.when(request.getHeader(HttpHeaders.IF_NONE_MATCH)).thenReturn(etag);
+      Mockito.when(request.getParameter("xmlSvgFragHash")).thenReturn(fragment.getDigest());
+      Mockito.when(request.getParameter("sig")).thenReturn(SvgUrlSigner.sign(fragment.getDigest()));
+      Mockito.when(request.getParameter("format")).thenReturn("png");
+      Mockito.when(request.getParameter("width")).thenReturn("100");
+      Mockito.when(request.getParameter("dpr")).thenReturn("2");
+
+      HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+      new SvgServlet().doGet(request, response);
+      Mockito.verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      Mockito.verify(response).setHeader(HttpHeaders.ETAG, etag);
+      Mockito.verify(response, Mockito.never()).sendError(Mockito.anyInt(), Mockito.anyString());
+    } finally {
+      fragment.release();
+    }
+  }
+
+  /**
+   * @param response A mock response.
+   *
+   * @return The stream that collects the bytes written to the output stream of the response.
+   */
+  private static ByteArrayOutputStream mockOutputStream(HttpServletResponse response) throws Exception {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    ServletOutputStream out = Mockito.mock(ServletOutputStream.class);
+    Mockito.doAnswer(invocation -> {
+      body.write((byte[]) invocation.getArgument(0), (int) invocation.getArgument(1), (int) invocation.getArgument(2));
+      return null;
+    }).when(out).write(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt());
+    Mockito.when(response.getOutputStream()).thenReturn(out);
+    return body;
+  }
+
+  /**
+   * @param name The header name.
+   * @param value The header value.
+   *
+   * @return A request that has only the given header.
+   */
+  private static HttpServletRequest requestWithHeader(String name, String value) {
+    HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+    Mockito.when(request.getHeader(name)).thenReturn(value);
+    Mockito.when(request.getDateHeader(Mockito.anyString())).thenReturn(-1L);
+    return request;
+  }
+}
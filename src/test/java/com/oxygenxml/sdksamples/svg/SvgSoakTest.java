@@ -0,0 +1,119 @@
+package com.oxygenxml.sdksamples.svg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
+import java.util.Locale;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import ro.sync.ecss.extensions.api.node.AuthorElement;
+
+/**
+ * Soak test that opens, edits and closes many documents, to check that nothing is retained
+ * after a document is closed.
+ *
+ * Disabled by default. Run with:
+ * <pre>mvn test -Dtest=SvgSoakTest -Dsvg.soakTest=true -Dsvg.soakTest.cycles=20000</pre>
+ */
+public class SvgSoakTest {
+
+  /**
+   * The prefix of the system properties that configure the test.
+   */
+  private static final String PREFIX = "svg.soakTest.";
+
+  /**
+   * <p><b>Description:</b> Test that the heap retained by the caches and by the document registry
+   * stays flat while documents are opened and closed.</p>
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testSessionChurn() throws Exception {
+    Assume.assumeTrue("Enable with -Dsvg.soakTest=true", Boolean.getBoolean("svg.soakTest"));
+    int cycles = Integer.getInteger(PREFIX + "cycles", 5000);
+    int svgCount = Integer.getInteger(PREFIX + "svgs", 20);
+    int reportInterval = Integer.getInteger(PREFIX + "reportInterval", Math.max(1, cycles / 10));
+    // Growth tolerated for each cycle, for the noise of the measurement.
+    long maxBytesPerCycle = Long.getLong(PREFIX + "maxBytesPerCycle", 256);
+    SvgRenderer renderer = new SvgRenderer();
+
+    // The first cycles load the classes and fill the pools, so they are not measured.
+    int warmupCycles = reportInterval;
+    for (int cycle = 0; cycle < warmupCycles; cycle++) {
+      runCycle(renderer, svgCount, cycle);
+    }
+    long baseline = retainedHeap();
+    System.out.println(String.format(Locale.ROOT, "%nSVG soak test: %d cycles of %d SVGs, baseline %d KiB",
+        cycles, svgCount, baseline >> 10));
+
+    long retained = baseline;
+    for (int cycle = 1; cycle <= cycles; cycle++) {
+      runCycle(renderer, svgCount, cycle);
+      if (cycle % reportInterval == 0 || cycle == cycles) {
+        retained = retainedHeap();
+        System.out.println(String.format(Locale.ROOT,
+            "cycle %7d: retained %8d KiB, %+8.1f bytes/cycle, open documents %d, frozen bytes %d",
+            cycle, retained >> 10, (retained - baseline) / (double) cycle,
+            EditingSessionContextManager.getDocumentCount(), SvgMemoryBudget.getTotalBytes()));
+      }
+    }
+
+    assertEquals("Documents still registered", 0, EditingSessionContextManager.getDocumentCount());
+    assertEquals("Fragments still accounted", 0, SvgMemoryBudget.getTotalBytes());
+    long growth = retained - baseline;
+    assertTrue("Retained heap grew by " + growth + " bytes in " + cycles + " cycles",
+        growth <= maxBytesPerCycle * cycles);
+  }
+
+  /**
+   * Opens a document, renders and edits its SVGs and closes it.
+   *
+   * @param renderer The renderer.
+   * @param svgCount The number of SVGs of the document.
+   * @param cycle The index of the cycle.
+   *
+   * @throws Exception
+   */
+  private static void runCycle(SvgRenderer renderer, int svgCount, int cycle) throws Exception {
+    StubDocument document = new StubDocument();
+    AuthorElement[] svgs = new AuthorElement[svgCount];
+    for (int i = 0; i < svgCount; i++) {
+      svgs[i] = document.newSvgElement();
+      // Some SVGs are shared by the documents, as with the same document opened by several users.
+      document.edit(svgs[i], StubDocument.generateSvg(20, i % 2 == 0 ? i : cycle * svgCount + i));
+      renderer.renderControl(document.newInplaceContext(svgs[i]), new StringWriter());
+    }
+    for (int i = 0; i < svgCount; i += 4) {
+      document.edit(svgs[i], StubDocument.generateSvg(20, -cycle * svgCount - i));
+      renderer.renderControl(document.newInplaceContext(svgs[i]), new StringWriter());
+    }
+    // The document is closed when the editor drops it.
+  }
+
+  /**
+   * Collects the closed documents and measures the heap.
+   *
+   * @return The bytes used on the heap.
+   *
+   * @throws InterruptedException
+   */
+  private static long retainedHeap() throws InterruptedException {
+    for (int i = 0; i < 5; i++) {
+      WeakReference<Object> sentinel = new WeakReference<>(new Object());
+      while (sentinel.get() != null) {
+        System.gc();
+        Thread.sleep(10);
+      }
+      // The reference queues are drained on access.
+      EditingSessionContextManager.getDocumentCount();
+      SvgMemoryBudget.getTotalBytes();
+    }
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
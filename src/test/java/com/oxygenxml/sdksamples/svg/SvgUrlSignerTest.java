@@ -0,0 +1,33 @@
+package com.oxygenxml.sdksamples.svg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+/**
+ * Tests for the signatures of the SVG URLs.
+ */
+public class SvgUrlSignerTest {
+
+  /**
+   * <p><b>Description:</b> Test that a signature is valid only for the fragment it was issued for,
+   * and that the same fragment always has the same signature, so that its URL can be cached.</p>
+   */
+  @Test
+  public void testSignature() {
+    String digest = Strings.repeat("a", 64);
+    String signature = SvgUrlSigner.sign(digest);
+
+    assertEquals(signature, SvgUrlSigner.sign(digest));
+    assertTrue(SvgUrlSigner.verify(digest, signature));
+    assertFalse(SvgUrlSigner.verify(Strings.repeat("b", 64), signature));
+    assertFalse(SvgUrlSigner.verify(digest, Strings.repeat("0", signature.length())));
+    assertFalse(SvgUrlSigner.verify(digest, "zz" + signature.substring(2)));
+    assertFalse(SvgUrlSigner.verify(digest, null));
+    assertFalse(SvgUrlSigner.verify(null, signature));
+  }
+}
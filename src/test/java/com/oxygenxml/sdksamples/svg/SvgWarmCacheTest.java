@@ -0,0 +1,118 @@
+package com.oxygenxml.sdksamples.svg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Strings;
+
+/**
+ * Tests for the persistent cache.
+ */
+public class SvgWarmCacheTest {
+
+  /**
+   * Folder for the cache files.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * <p><b>Description:</b> Test that the entries are found again after a restart.</p>
+   */
+  @Test
+  public void testSurvivesRestart() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    SvgWarmCache cache = new SvgWarmCache(directory, 1024 * 1024);
+    cache.awaitIndexed();
+    String key = Strings.repeat("ab", 32) + SvgWarmCache.GZIP_EXTENSION;
+    byte[] content = {1, 2, 3, 4};
+    assertNull(cache.get(key));
+    cache.put(key, ByteBuffer.wrap(content));
+    assertArrayEquals(content, cache.get(key));
+
+    // A file left by a crash while it was written.
+    Path leftover = Files.createFile(directory.resolve("ab").resolve(key + "123.tmp"));
+    Files.setLastModifiedTime(leftover, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)));
+
+    SvgWarmCache restarted = new SvgWarmCache(directory, 1024 * 1024);
+    restarted.awaitIndexed();
+    assertArrayEquals(content, restarted.get(key));
+    assertEquals(content.length, restarted.getTotalBytes());
+    assertFalse(Files.exists(leftover));
+  }
+
+  /**
+   * <p><b>Description:</b> Test that the least recently used entries are deleted when the cache is full.</p>
+   */
+  @Test
+  public void testEviction() throws Exception {
+    SvgWarmCache cache = new SvgWarmCache(folder.getRoot().toPath(), 250);
+    cache.awaitIndexed();
+    String first = Strings.repeat("1", 64) + SvgWarmCache.PNG_EXTENSION;
+    String second = Strings.repeat("2", 64) + "-128-2" + SvgWarmCache.PNG_EXTENSION;
+    String third = Strings.repeat("3", 64) + SvgWarmCache.GZIP_EXTENSION;
+    cache.put(first, ByteBuffer.allocate(100));
+    cache.put(second, ByteBuffer.allocate(100));
+    // The first entry becomes the most recently used one.
+    cache.get(first);
+    cache.put(third, ByteBuffer.allocate(100));
+
+    assertNull(cache.get(second));
+    assertEquals(100, cache.get(first).length);
+    assertEquals(100, cache.get(third).length);
+    assertEquals(200, cache.getTotalBytes());
+
+    // The limit may be lowered between runs.
+    SvgWarmCache restarted = new SvgWarmCache(folder.getRoot().toPath(), 150);
+    restarted.awaitIndexed();
+    assertEquals(100, restarted.getTotalBytes());
+  }
+
+  /**
+   * <p><b>Description:</b> Test that the entries added while the files of a previous run are
+   * indexed are kept and counted once.</p>
+   */
+  @Test
+  public void testPutWhileIndexing() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    String oldKey = Strings.repeat("1", 64) + SvgWarmCache.PNG_EXTENSION;
+    String newKey = Strings.repeat("2", 64) + SvgWarmCache.PNG_EXTENSION;
+    SvgWarmCache cache = new SvgWarmCache(directory, 1024);
+    cache.put(oldKey, ByteBuffer.allocate(100));
+    cache.awaitIndexed();
+
+    SvgWarmCache restarted = new SvgWarmCache(directory, 1024);
+    restarted.put(newKey, ByteBuffer.allocate(50));
+    restarted.put(oldKey, ByteBuffer.allocate(100));
+    restarted.awaitIndexed();
+
+    assertEquals(100, restarted.get(oldKey).length);
+    assertEquals(50, restarted.get(newKey).length);
+    assertEquals(150, restarted.getTotalBytes());
+  }
+
+  /**
+   * <p><b>Description:</b> Test that keys that are not derived from digests are rejected.</p>
+   */
+  @Test
+  public void testInvalidKey() throws Exception {
+    SvgWarmCache cache = new SvgWarmCache(folder.newFolder("cache").toPath(), 1024);
+    cache.put("../outside.png", ByteBuffer.allocate(10));
+
+    assertNull(cache.get("../outside.png"));
+    assertFalse(Files.exists(folder.getRoot().toPath().resolve("outside.png")));
+    assertEquals(0, cache.getTotalBytes());
+  }
+}
@@ -1 +1,286 @@
+(function() {
+  /**
+   * The URL of the SVG servlet.
+   */
+  var SVG_SERVLET_URL = '../plugins-dispatcher/svg';
 
+  /**
+   * The maximum number of SVGs requested at once. Must not exceed SvgServlet.MAX_BATCH_SIZE.
+   */
+  var MAX_BATCH_SIZE = 50;
+
+  /**
+   * The selector of the images that wait to be loaded in batches.
+   */
+  var BATCHED_IMAGE_SELECTOR = 'img.svg-image[data-src][data-svg-hash][data-svg-sig]';
+
+  /**
+   * The images waiting to be loaded, by SVG hash.
+   */
+  var pendingImages = {};
+
+  /**
+   * Whether a batch request is scheduled.
+   */
+  var flushScheduled = false;
+
+  /**
+   * Object URLs of the loaded SVGs, by hash, shared by the images with the same content.
+   */
+  var loadedUrls = {};
+
+  /**
+   * The number of images that display each object URL, by hash. The URL is revoked when no
+   * image displays it anymore.
+   */
+  var urlUsers = {};
+
+  /**
+   * The hash of the object URL displayed by each image.
+   */
+  var displayedHashes = new WeakMap();
+
+  /**
+   * Notified when the images scroll into view, if supported by the browser.
+   */
+  var visibilityObserver = window.IntersectionObserver ?
+      new IntersectionObserver(onVisibilityChanged, {rootMargin: '200px'}) : null;
+
+  /**
+   * Loads the given image now.
+   *
+   * @param {HTMLImageElement} img The image.
+   * @param {string=} url The URL to load, the single SVG URL by default.
+   */
+  function loadImage(img, url) {
+    img.src = url || img.getAttribute('data-src');
+    img.removeAttribute('data-src');
+  }
+
+  /**
+   * Displays the loaded SVG with the given hash in an image.
+   *
+   * @param {HTMLImageElement} img The image.
+   * @param {string} hash The hash of the SVG.
+   */
+  function displayObjectUrl(img, hash) {
+    releaseObjectUrl(img);
+    displayedHashes.set(img, hash);
+    urlUsers[hash] = (urlUsers[hash] || 0) + 1;
+    loadImage(img, loadedUrls[hash]);
+  }
+
+  /**
+   * Stops counting an image as a user of the object URL it displays, revoking the URL if it
+   * was the last one.
+   *
+   * @param {HTMLImageElement} img The image.
+   */
+  function releaseObjectUrl(img) {
+    var hash = displayedHashes.get(img);
+    if (hash) {
+      displayedHashes.delete(img);
+      if (--urlUsers[hash] === 0) {
+        URL.revokeObjectURL(loadedUrls[hash]);
+        delete loadedUrls[hash];
+        delete urlUsers[hash];
+      }
+    }
+  }
+
+  /**
+   * Stops watching the images of a removed subtree and releases the object URLs they display.
+   *
+   * @param {Element} root The root of the subtree.
+   */
+  function releaseImages(root) {
+    var images = root.matches('img.svg-image') ? [root] : root.querySelectorAll('img.svg-image');
+    for (var i = 0; i < images.length; i++) {
+      if (visibilityObserver) {
+        visibilityObserver.unobserve(images[i]);
+      }
+      releaseObjectUrl(images[i]);
+    }
+  }
+
+  /**
+   * Queues an image to be loaded with the next batch.
+   *
+   * @param {HTMLImageElement} img The image.
+   */
+  function queueImage(img) {
+    var hash = img.getAttribute('data-svg-hash');
+    if (loadedUrls[hash]) {
+      displayObjectUrl(img, hash);
+    } else {
+      (pendingImages[hash] = pendingImages[hash] || []).push(img);
+      if (!flushScheduled) {
+        flushScheduled = true;
+        // Collect the images that become visible at the same time.
+        setTimeout(flushPendingImages, 0);
+      }
+    }
+  }
+
+  /**
+   * Requests the queued SVGs, in batches.
+   */
+  function flushPendingImages() {
+    flushScheduled = false;
+    var hashes = Object.keys(pendingImages);
+    for (var i = 0; i < hashes.length; i += MAX_BATCH_SIZE) {
+      var batch = {};
+      hashes.slice(i, i + MAX_BATCH_SIZE).forEach(function(hash) {
+        batch[hash] = pendingImages[hash];
+      });
+      fetchBatch(batch);
+    }
+    pendingImages = {};
+  }
+
+  /**
+   * Fetches the SVGs of a batch.
+   *
+   * @param {Object<string, Array<HTMLImageElement>>} batch The images to load, by hash.
+   */
+  function fetchBatch(batch) {
+    var hashes = Object.keys(batch);
+    var signedHashes = hashes.map(function(hash) {
+      return hash + '.' + batch[hash][0].getAttribute('data-svg-sig');
+    });
+    var xhr = new XMLHttpRequest();
+    xhr.open('GET', SVG_SERVLET_URL + '?xmlSvgFragHashes=' + signedHashes.join(','));
+    xhr.onload = xhr.onerror = function() {
+      var svgs = {};
+      if (xhr.status === 200) {
+        try {
+          svgs = JSON.parse(xhr.responseText);
+        } catch (e) {
+          console.warn('Invalid SVG batch response', e);
+        }
+      }
+      hashes.forEach(function(hash) {
+        // The images removed while the batch was loading do not need the SVG anymore.
+        var images = batch[hash].filter(function(img) {
+          return img.isConnected;
+        });
+        if (svgs[hash] && images.length > 0) {
+          loadedUrls[hash] = loadedUrls[hash] ||
+              URL.createObjectURL(new Blob([svgs[hash]], {type: 'image/svg+xml'}));
+          images.forEach(function(img) {
+            displayObjectUrl(img, hash);
+          });
+        } else {
+          // The SVGs missing from the response are loaded one by one.
+          images.forEach(function(img) {
+            loadImage(img);
+          });
+        }
+      });
+    };
+    xhr.send();
+  }
+
+  /**
+   * Queues the images that became visible.
+   *
+   * @param {Array<IntersectionObserverEntry>} entries The entries.
+   */
+  function onVisibilityChanged(entries) {
+    entries.forEach(function(entry) {
+      if (entry.isIntersecting) {
+        visibilityObserver.unobserve(entry.target);
+        queueImage(entry.target);
+      }
+    });
+  }
+
+  /**
+   * Starts watching an SVG image.
+   *
+   * @param {HTMLImageElement} img The image.
+   */
+  function watchImage(img) {
+    if (visibilityObserver) {
+      visibilityObserver.observe(img);
+    } else {
+      queueImage(img);
+    }
+  }
+
+  /**
+   * Starts watching the SVG images in the given subtree.
+   *
+   * @param {Element} root The root of the subtree.
+   */
+  function watchImages(root) {
+    if (root.matches(BATCHED_IMAGE_SELECTOR)) {
+      watchImage(root);
+    } else {
+      var images = root.querySelectorAll(BATCHED_IMAGE_SELECTOR);
+      for (var i = 0; i < images.length; i++) {
+        watchImage(images[i]);
+      }
+    }
+  }
+
+  /**
+   * @return {Element} The element in which the documents are rendered, or the whole page if the
+   *     editor does not expose it.
+   */
+  function getEditorContent() {
+    var container = window.workspace && typeof workspace.getEditingContainer === 'function' ?
+        workspace.getEditingContainer() : null;
+    return container || document.documentElement;
+  }
+
+  /**
+   * Starts watching the images rendered in the editor, to load them in batches.
+   */
+  function watchEditorContent() {
+    // The form controls are rendered whenever the document is loaded or edited.
+    var editorContent = getEditorContent();
+    new MutationObserver(function(mutations) {
+      mutations.forEach(function(mutation) {
+        if (mutation.type === 'attributes') {
+          // The image was updated in place with another SVG.
+          releaseObjectUrl(mutation.target);
+          if (mutation.target.matches(BATCHED_IMAGE_SELECTOR)) {
+            watchImage(mutation.target);
+          }
+          return;
+        }
+        for (var i = 0; i < mutation.removedNodes.length; i++) {
+          if (mutation.removedNodes[i].nodeType === Node.ELEMENT_NODE) {
+            releaseImages(mutation.removedNodes[i]);
+          }
+        }
+        for (var j = 0; j < mutation.addedNodes.length; j++) {
+          if (mutation.addedNodes[j].nodeType === Node.ELEMENT_NODE) {
+            watchImages(mutation.addedNodes[j]);
+          }
+        }
+      });
+    }).observe(editorContent, {childList: true, subtree: true, attributes: true, attributeFilter: ['data-svg-hash']});
+    watchImages(editorContent);
+  }
+
+  // Without batch loading the images have their own URLs, and the edits are not observed.
+  var optionsRequest = new XMLHttpRequest();
+  optionsRequest.open('GET', SVG_SERVLET_URL + '?clientOptions=true');
+  optionsRequest.onload = function() {
+    var options = {};
+    if (optionsRequest.status === 200) {
+      try {
+        options = JSON.parse(optionsRequest.responseText);
+      } catch (e) {
+        console.warn('Invalid SVG options response', e);
+      }
+    }
+    if (options.batchLoading) {
+      // The images rendered meanwhile are found in the editor content.
+      watchEditorContent();
+    }
+  };
+  optionsRequest.send();
+})();